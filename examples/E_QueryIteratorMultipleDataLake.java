@@ -48,8 +48,9 @@ public class E_QueryIteratorMultipleDataLake {
         Http2Fetch client = new Http2Fetch();
 
         /**
-         * Each credential tuple must be initialitated on its own and in sequence
-         * (parallel init could trigger race conditions)
+         * Credential tuples are lazily initialized on first use. Priming them in
+         * advance is optional and just moves the credential round trip out of the
+         * first query.
          */
         client.init(credTuple1);
         client.init(credTuple2);
@@ -0,0 +1,86 @@
+/**
+ * AdaptivePolling
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.time.Duration;
+
+import com.paloaltonetworks.cortex.data_lake.QueryJobDetail.Progress;
+import com.paloaltonetworks.cortex.data_lake.QueryJobDetail.Statistics;
+
+/**
+ * Polling strategy driven by the job completion estimates of the server.
+ * 
+ * The next check is scheduled for the time the job is expected to complete:
+ * the {@code statistics.etaMs} of the job detail or, when missing, the time
+ * left at the current progress rate ({@code runTimeMs} spent to reach
+ * {@code completionPct}). Jobs without an estimate are checked with a capped
+ * exponential backoff. Delays never exceed maxDelay, so a wrong estimate can't
+ * delay a completed job for long.
+ */
+public class AdaptivePolling implements PollingStrategy {
+    /**
+     * 1 s base delay and 30 s max delay.
+     */
+    public static final AdaptivePolling DEFAULT = new AdaptivePolling(Duration.ofSeconds(1), Duration.ofSeconds(30));
+    final long baseDelay;
+    final long maxDelay;
+
+    /**
+     * Creates an adaptive polling strategy.
+     * 
+     * @param baseDelay fallback delay after the first check of a job without
+     *                  estimates (doubled on each subsequent check)
+     * @param maxDelay  longest delay between two checks
+     * @throws IllegalArgumentException if any delay is negative
+     */
+    public AdaptivePolling(Duration baseDelay, Duration maxDelay) throws IllegalArgumentException {
+        if (baseDelay.isNegative() || maxDelay.isNegative())
+            throw new IllegalArgumentException("delays can't be negative");
+        this.baseDelay = baseDelay.toMillis();
+        this.maxDelay = maxDelay.toMillis();
+    }
+
+    @Override
+    public long delay(int attempt, QueryJobDetail jobDetail) {
+        long eta = eta(jobDetail);
+        if (eta >= 0)
+            return Math.min(maxDelay, eta);
+        return Math.min(maxDelay, baseDelay << Math.min(Math.max(attempt - 1, 0), 30));
+    }
+
+    /**
+     * Expected time to complete a job.
+     * 
+     * @param jobDetail job detail (may be null)
+     * @return milliseconds or -1 if the detail carries no estimate
+     */
+    static long eta(QueryJobDetail jobDetail) {
+        if (jobDetail == null)
+            return -1;
+        Statistics statistics = jobDetail.statistics;
+        if (statistics != null && statistics.etaMs != null && statistics.etaMs >= 0)
+            return statistics.etaMs;
+        Progress progress = jobDetail.progress;
+        if (statistics == null || statistics.runTimeMs == null || progress == null || progress.completionPct == null)
+            return -1;
+        int pct = progress.completionPct;
+        if (pct <= 0 || pct >= 100)
+            return -1;
+        return (long) statistics.runTimeMs * (100 - pct) / pct;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * CircuitBreaker
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.paloaltonetworks.cortex.data_lake.CircuitBreakerEvent.State;
+
+/**
+ * Closed / open / half-open circuit breaker of an entry point and data lake.
+ * Every allowed request must report exactly one outcome.
+ */
+class CircuitBreaker {
+    private static final Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    final String entryPoint;
+    final String dataLake;
+    private final CircuitBreakerPolicy policy;
+    private final Consumer<CircuitBreakerEvent> listener;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private int probes = 0;
+    private int probeSuccesses = 0;
+
+    /**
+     * Creates a closed circuit breaker.
+     * 
+     * @param entryPoint entry point (fqdn)
+     * @param dataLake   data lake identifier (may be null)
+     * @param policy     thresholds
+     * @param listener   receives the state changes (called outside any lock, must
+     *                   not throw)
+     */
+    CircuitBreaker(String entryPoint, String dataLake, CircuitBreakerPolicy policy,
+            Consumer<CircuitBreakerEvent> listener) {
+        this.entryPoint = entryPoint;
+        this.dataLake = dataLake;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    /**
+     * Checks whether a request can be issued.
+     * 
+     * @return true if the request is allowed
+     */
+    boolean tryAcquire() {
+        CircuitBreakerEvent event = null;
+        boolean allowed;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= policy.openDurationNanos) {
+                event = transition(State.HALF_OPEN);
+                probes = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                allowed = probes < policy.halfOpenProbes;
+                if (allowed)
+                    probes++;
+            } else {
+                allowed = state == State.CLOSED;
+            }
+        }
+        notify(event);
+        return allowed;
+    }
+
+    void onSuccess() {
+        CircuitBreakerEvent event = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN && ++probeSuccesses >= policy.halfOpenProbes)
+                event = transition(State.CLOSED);
+        }
+        notify(event);
+    }
+
+    void onFailure() {
+        CircuitBreakerEvent event = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            if ((state == State.CLOSED && consecutiveFailures >= policy.failureThreshold)
+                    || state == State.HALF_OPEN) {
+                event = transition(State.OPEN);
+                openedAt = System.nanoTime();
+            }
+        }
+        notify(event);
+    }
+
+    /**
+     * Reports a request that ended without a verdict (i.e. cancelled), so a
+     * half-open probe slot can be reused.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probes > probeSuccesses)
+            probes--;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    private CircuitBreakerEvent transition(State next) {
+        CircuitBreakerEvent event = new CircuitBreakerEvent(entryPoint, dataLake, state, next,
+                System.currentTimeMillis());
+        state = next;
+        return event;
+    }
+
+    private void notify(CircuitBreakerEvent event) {
+        if (event == null)
+            return;
+        if (logger.isLoggable(Level.INFO))
+            logger.info(String.format("Circuit breaker for %s (data lake %s) changed from %s to %s", entryPoint,
+                    dataLake, event.previous, event.state));
+        listener.accept(event);
+    }
+}
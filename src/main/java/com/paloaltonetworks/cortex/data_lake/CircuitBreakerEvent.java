@@ -0,0 +1,70 @@
+/**
+ * CircuitBreakerEvent
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Circuit breaker state change notification.
+ */
+public class CircuitBreakerEvent {
+    /**
+     * Circuit breaker states
+     */
+    public static enum State {
+        /**
+         * Requests flow normally.
+         */
+        CLOSED,
+        /**
+         * Requests fail fast.
+         */
+        OPEN,
+        /**
+         * A limited number of probe requests is allowed.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Entry point (fqdn) of the circuit
+     */
+    public final String entryPoint;
+    /**
+     * Data Lake identifier of the circuit (null for the default credential)
+     */
+    public final String dataLake;
+    /**
+     * State before the change
+     */
+    public final State previous;
+    /**
+     * State after the change
+     */
+    public final State state;
+    /**
+     * Epoch millis of the change
+     */
+    public final long timestamp;
+
+    CircuitBreakerEvent(String entryPoint, String dataLake, State previous, State state, long timestamp) {
+        this.entryPoint = entryPoint;
+        this.dataLake = dataLake;
+        this.previous = previous;
+        this.state = state;
+        this.timestamp = timestamp;
+    }
+}
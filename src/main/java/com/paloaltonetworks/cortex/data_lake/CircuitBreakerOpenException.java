@@ -0,0 +1,33 @@
+/**
+ * CircuitBreakerOpenException
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.IOException;
+
+/**
+ * Thrown (without contacting the server) when the circuit breaker of the
+ * target entry point and data lake is open.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * CircuitBreakerPolicy
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker thresholds.
+ * 
+ * The circuit opens after failureThreshold consecutive failures (I/O errors,
+ * timeouts and 5xx responses other than 501). While open, requests fail
+ * immediately with {@link CircuitBreakerOpenException}. After openDuration the
+ * circuit becomes half-open and lets halfOpenProbes requests through: it closes
+ * if all of them succeed and opens again on the first failure.
+ */
+public class CircuitBreakerPolicy {
+    /**
+     * Opens after 5 consecutive failures for 30 seconds and probes with a single
+     * request.
+     */
+    public static final CircuitBreakerPolicy DEFAULT = new CircuitBreakerPolicy(5, Duration.ofSeconds(30), 1);
+    final int failureThreshold;
+    final long openDurationNanos;
+    final int halfOpenProbes;
+
+    /**
+     * Creates a circuit breaker policy.
+     * 
+     * @param failureThreshold consecutive failures that open the circuit
+     * @param openDuration     time the circuit stays open before probing
+     * @param halfOpenProbes   requests allowed (and required to succeed) while
+     *                         half-open
+     * @throws IllegalArgumentException if a threshold is lower than 1 or the
+     *                                  duration is negative
+     */
+    public CircuitBreakerPolicy(int failureThreshold, Duration openDuration, int halfOpenProbes)
+            throws IllegalArgumentException {
+        if (failureThreshold < 1 || halfOpenProbes < 1)
+            throw new IllegalArgumentException("thresholds must be at least 1");
+        if (openDuration.isNegative())
+            throw new IllegalArgumentException("'openDuration' can't be negative");
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    static boolean failureStatus(int statusCode) {
+        return statusCode >= 500 && statusCode != 501;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * ClientPool
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of {@link HttpClient} instances. Each client keeps its own HTTP/2
+ * connection to every entry point, so N clients give N independent connections
+ * (stream limits and congestion windows) per entry point.
+ * 
+ * Requests are striped to the client with the fewest in-flight requests to the
+ * target host. Ties are broken from a random starting point to avoid piling up
+ * on the first connection.
+ */
+class ClientPool {
+    private final HttpClient[] clients;
+    private final ConcurrentHashMap<String, AtomicIntegerArray> inFlight;
+
+    /**
+     * Creates the pool.
+     * 
+     * @param size    number of clients (connections per entry point)
+     * @param factory client factory
+     * @throws IllegalArgumentException if size is lower than 1
+     */
+    ClientPool(int size, Supplier<HttpClient> factory) throws IllegalArgumentException {
+        if (size < 1)
+            throw new IllegalArgumentException("'connections' must be at least 1");
+        inFlight = new ConcurrentHashMap<String, AtomicIntegerArray>();
+        clients = new HttpClient[size];
+        for (int i = 0; i < size; i++)
+            clients[i] = factory.get();
+    }
+
+    int size() {
+        return clients.length;
+    }
+
+    HttpClient client(int index) {
+        return clients[index];
+    }
+
+    /**
+     * Reserves the least loaded client for a request to the provided host. Must
+     * be paired with a {@link #release(String, int)} call once the response body
+     * has been consumed.
+     * 
+     * @param host target host
+     * @return index of the reserved client
+     */
+    int acquire(String host) {
+        AtomicIntegerArray load = inFlight.get(host);
+        if (load == null)
+            load = inFlight.computeIfAbsent(host, h -> new AtomicIntegerArray(clients.length));
+        int size = clients.length;
+        int start = (size == 1) ? 0 : ThreadLocalRandom.current().nextInt(size);
+        int best = start;
+        int bestLoad = load.get(start);
+        for (int i = 1; i < size && bestLoad > 0; i++) {
+            int candidate = (start + i) % size;
+            int candidateLoad = load.get(candidate);
+            if (candidateLoad < bestLoad) {
+                best = candidate;
+                bestLoad = candidateLoad;
+            }
+        }
+        load.incrementAndGet(best);
+        return best;
+    }
+
+    void release(String host, int index) {
+        inFlight.get(host).decrementAndGet(index);
+    }
+
+    /**
+     * In-flight requests to a host.
+     * 
+     * @param host target host
+     * @return number of in-flight requests per client
+     */
+    int[] load(String host) {
+        AtomicIntegerArray load = inFlight.get(host);
+        int[] snapshot = new int[clients.length];
+        if (load != null)
+            for (int i = 0; i < snapshot.length; i++)
+                snapshot[i] = load.get(i);
+        return snapshot;
+    }
+}
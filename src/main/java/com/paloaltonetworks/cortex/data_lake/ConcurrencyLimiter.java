@@ -0,0 +1,238 @@
+/**
+ * ConcurrencyLimiter
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive (AIMD) limit of the in-flight requests to a data lake.
+ * 
+ * The limit grows by one every round trip while it is being used and shrinks
+ * multiplicatively on overload signals: a 429 or 503 response or a timeout
+ * (halves it) and a round trip time well above its moving average (10%). The
+ * limit shrinks at most once per average round trip so a burst of failures
+ * counts as a single signal. Requests the server holds on purpose (long polls)
+ * are not latency samples and do not take a slot: they would otherwise starve
+ * the short requests of the data lake for as long as the server holds them.
+ * 
+ * Requests over the limit wait in a FIFO queue instead of failing.
+ */
+class ConcurrencyLimiter {
+    private static final Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double RTT_SMOOTHING = 0.1;
+    private static final int WARMUP_SAMPLES = 10;
+
+    /**
+     * A granted request slot. Must be released exactly once.
+     */
+    static final class Permit {
+        private final ConcurrencyLimiter limiter;
+        private final boolean counted;
+        private final long start = System.nanoTime();
+        private long rtt = -1;
+        private boolean overloaded = false;
+        private boolean held = false;
+
+        private Permit(ConcurrencyLimiter limiter, boolean counted) {
+            this.limiter = limiter;
+            this.counted = counted;
+        }
+
+        /**
+         * Records the round trip time and whether the server signaled overload.
+         * 
+         * @param statusCode HTTP response status code
+         */
+        void responded(int statusCode) {
+            responded(statusCode, System.nanoTime() - start);
+        }
+
+        void responded(int statusCode, long rttNanos) {
+            rtt = rttNanos;
+            overloaded = statusCode == 429 || statusCode == 503;
+        }
+
+        /**
+         * Records whether the server signaled overload. The round trip time of a
+         * request the server held on purpose (a long poll) is not sampled.
+         * 
+         * @param statusCode HTTP response status code
+         * @param held       true if the server may have held the request
+         */
+        void responded(int statusCode, boolean held) {
+            this.held = held;
+            responded(statusCode);
+        }
+
+        /**
+         * Records that the request timed out.
+         */
+        void timedOut() {
+            rtt = System.nanoTime() - start;
+            overloaded = true;
+        }
+
+        void release() {
+            limiter.release(this);
+        }
+    }
+
+    final String key;
+    private final int maxLimit;
+    private final ArrayDeque<CompletableFuture<Permit>> queue = new ArrayDeque<CompletableFuture<Permit>>();
+    private double limit;
+    private int inFlight = 0;
+    private double rttAverage = 0;
+    private long samples = 0;
+    private long lastBackoff = 0;
+    private boolean backedOff = false;
+    private long overloads = 0;
+
+    /**
+     * Creates a limiter.
+     * 
+     * @param key          data lake identifier (or entry point)
+     * @param initialLimit starting limit
+     * @param maxLimit     the limit never grows beyond this value
+     * @throws IllegalArgumentException if the limits are lower than 1 or
+     *                                  inconsistent
+     */
+    ConcurrencyLimiter(String key, int initialLimit, int maxLimit) throws IllegalArgumentException {
+        if (initialLimit < 1 || maxLimit < initialLimit)
+            throw new IllegalArgumentException("limits must satisfy 1 <= initialLimit <= maxLimit");
+        this.key = key;
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Requests a slot.
+     * 
+     * @return a future that completes (in the thread releasing a slot if the
+     *         limit has been reached) once the request can be issued
+     */
+    CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter;
+        synchronized (this) {
+            if (queue.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit(this, true));
+            }
+            waiter = new CompletableFuture<Permit>();
+            queue.add(waiter);
+        }
+        waiter.whenComplete((permit, e) -> {
+            if (waiter.isCancelled())
+                dequeue(waiter);
+        });
+        return waiter;
+    }
+
+    /**
+     * Permit for a request the server holds on purpose (a long poll). It is
+     * granted at once and does not count against the limit, but its overload
+     * signals still shrink it.
+     * 
+     * @return the permit
+     */
+    Permit unlimited() {
+        return new Permit(this, false);
+    }
+
+    /**
+     * Blocks until a slot is available.
+     * 
+     * @return the granted permit
+     * @throws InterruptedException if interrupted while waiting in the queue
+     */
+    Permit acquireBlocking() throws InterruptedException {
+        CompletableFuture<Permit> waiter = acquire();
+        try {
+            return waiter.get();
+        } catch (InterruptedException e) {
+            if (!waiter.cancel(false))
+                waiter.join().release();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private synchronized void dequeue(CompletableFuture<Permit> waiter) {
+        queue.remove(waiter);
+    }
+
+    private void release(Permit permit) {
+        List<CompletableFuture<Permit>> granted = new ArrayList<CompletableFuture<Permit>>();
+        synchronized (this) {
+            if (permit.counted)
+                inFlight--;
+            if (permit.rtt >= 0)
+                sample(permit);
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                CompletableFuture<Permit> waiter = queue.poll();
+                if (!waiter.isDone()) {
+                    inFlight++;
+                    granted.add(waiter);
+                }
+            }
+        }
+        for (CompletableFuture<Permit> waiter : granted) {
+            Permit next = new Permit(this, true);
+            if (!waiter.complete(next))
+                next.release();
+        }
+    }
+
+    private void sample(Permit permit) {
+        long now = System.nanoTime();
+        boolean slow = !permit.held && samples >= WARMUP_SAMPLES && permit.rtt > LATENCY_TOLERANCE * rttAverage;
+        if (permit.overloaded || slow) {
+            overloads++;
+            if (!backedOff || now - lastBackoff > rttAverage) {
+                double previous = limit;
+                limit = Math.max(1, limit * (permit.overloaded ? THROTTLED_BACKOFF : LATENCY_BACKOFF));
+                lastBackoff = now;
+                backedOff = true;
+                if (logger.isLoggable(Level.FINE))
+                    logger.fine(String.format("Concurrency limit for %s reduced from %.1f to %.1f", key, previous,
+                            limit));
+            }
+            if (permit.overloaded)
+                return;
+        }
+        if (permit.held)
+            return;
+        rttAverage = (samples++ == 0) ? permit.rtt : rttAverage + RTT_SMOOTHING * (permit.rtt - rttAverage);
+        if (!slow && inFlight + 1 >= limit / 2)
+            limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    synchronized ConcurrencyStats stats() {
+        return new ConcurrencyStats(key, (int) limit, inFlight, queue.size(), overloads);
+    }
+}
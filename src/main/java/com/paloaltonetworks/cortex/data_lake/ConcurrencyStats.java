@@ -0,0 +1,54 @@
+/**
+ * ConcurrencyStats
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Snapshot of the adaptive concurrency limiter of a data lake.
+ */
+public class ConcurrencyStats {
+    /**
+     * Data Lake identifier (entry point for requests using the default
+     * credential)
+     */
+    public final String dataLake;
+    /**
+     * Current limit of in-flight requests
+     */
+    public final int limit;
+    /**
+     * Requests currently in flight
+     */
+    public final int inFlight;
+    /**
+     * Requests waiting for a slot
+     */
+    public final int queueDepth;
+    /**
+     * Number of overload signals seen (429/503 responses, timeouts and latency
+     * spikes)
+     */
+    public final long overloadCount;
+
+    ConcurrencyStats(String dataLake, int limit, int inFlight, int queueDepth, long overloadCount) {
+        this.dataLake = dataLake;
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.overloadCount = overloadCount;
+    }
+}
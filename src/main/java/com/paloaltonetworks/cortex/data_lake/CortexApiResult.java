@@ -31,9 +31,18 @@ public class CortexApiResult<T> {
      * Cortex API HTTP Response status code
      */
     public final int statusCode;
+    /**
+     * Size of the decoded response body in bytes (0 if not known)
+     */
+    final long bytes;
 
     CortexApiResult(T result, int statusCode) {
+        this(result, statusCode, 0);
+    }
+
+    CortexApiResult(T result, int statusCode, long bytes) {
         this.result = result;
         this.statusCode = statusCode;
+        this.bytes = bytes;
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+/**
+ * CredentialRefreshStats
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Snapshot of the background credential refresh counters of a data lake.
+ */
+public class CredentialRefreshStats {
+    /**
+     * Data Lake identifier (null for the default credential)
+     */
+    public final String dataLake;
+    /**
+     * Number of calls made to the credential provider
+     */
+    public final long refreshCount;
+    /**
+     * Number of provider calls that returned a new token
+     */
+    public final long updateCount;
+    /**
+     * Number of provider calls that threw an exception
+     */
+    public final long failureCount;
+    /**
+     * Latency of the last provider call (nanoseconds)
+     */
+    public final long lastLatencyNanos;
+    /**
+     * Highest provider call latency seen (nanoseconds)
+     */
+    public final long maxLatencyNanos;
+    /**
+     * Accumulated latency of all provider calls (nanoseconds)
+     */
+    public final long totalLatencyNanos;
+
+    CredentialRefreshStats(String dataLake, long refreshCount, long updateCount, long failureCount,
+            long lastLatencyNanos, long maxLatencyNanos, long totalLatencyNanos) {
+        this.dataLake = dataLake;
+        this.refreshCount = refreshCount;
+        this.updateCount = updateCount;
+        this.failureCount = failureCount;
+        this.lastLatencyNanos = lastLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.totalLatencyNanos = totalLatencyNanos;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * CredentialSlot
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Holds the current {@link UrlContext} of a credential.
+ * 
+ * Readers only perform a volatile read. The credential provider is called from
+ * a background scheduler ahead of the token expiration, so requests never block
+ * on a refresh.
+ */
+class CredentialSlot {
+    /**
+     * Immutable snapshot of the entry point and authorization header to use with
+     * a given credential.
+     */
+    static final class UrlContext {
+        final String entryPoint;
+        final String authHeader;
+        final String token;
+        /**
+         * Epoch millis after which the credential provider must be asked for a
+         * fresher token.
+         */
+        final long refreshAt;
+
+        UrlContext(String entryPoint, String token, long now) {
+            this.entryPoint = entryPoint;
+            this.authHeader = "Bearer " + token;
+            this.token = token;
+            this.refreshAt = Tools.tokenRefreshAt(token, now);
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private static final long MIN_RETRY_DELAY = 1_000;
+    final String dataLake;
+    final Function<Boolean, Map.Entry<String, String>> cred;
+    private final String label;
+    private final AtomicReference<UrlContext> context;
+    private final ScheduledExecutorService scheduler;
+    private volatile ScheduledFuture<?> nextRefresh = null;
+    private int consecutiveFailures = 0;
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong updateCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos = 0;
+
+    /**
+     * Initializes the slot with a forced call to the credential provider. The
+     * background refresh only begins with {@link #start()}, once the slot has
+     * been published.
+     * 
+     * @param dataLake  data lake identifier (null for the default credential)
+     * @param cred      credential provider
+     * @param scheduler executor running the background refreshes
+     */
+    CredentialSlot(String dataLake, Function<Boolean, Map.Entry<String, String>> cred,
+            ScheduledExecutorService scheduler) {
+        this.dataLake = dataLake;
+        this.cred = cred;
+        this.label = (dataLake == null) ? "default data lake" : "data lake " + dataLake;
+        this.scheduler = scheduler;
+        Map.Entry<String, String> credData = cred.apply(true);
+        context = new AtomicReference<UrlContext>(
+                new UrlContext(credData.getKey(), credData.getValue(), System.currentTimeMillis()));
+        logger.info("Updated authentication header for " + label);
+    }
+
+    /**
+     * Schedules the first background refresh of the slot.
+     */
+    void start() {
+        schedule(context.get().refreshAt);
+    }
+
+    UrlContext get() {
+        return context.get();
+    }
+
+    /**
+     * Asks the credential provider for a fresher token and schedules the next
+     * refresh. Runs in the scheduler thread.
+     */
+    void refresh() {
+        long start = System.nanoTime();
+        long next;
+        try {
+            UrlContext current = context.get();
+            Map.Entry<String, String> credData = cred.apply(false);
+            String token = (credData == null) ? current.token : credData.getValue();
+            UrlContext updated = new UrlContext(current.entryPoint, token, System.currentTimeMillis());
+            context.set(updated);
+            if (credData != null) {
+                updateCount.incrementAndGet();
+                logger.info("Updated authentication header for " + label);
+            }
+            consecutiveFailures = 0;
+            next = updated.refreshAt;
+        } catch (RuntimeException e) {
+            failureCount.incrementAndGet();
+            logger.info("Failed to refresh authentication header for " + label + " due to: " + e.getMessage());
+            consecutiveFailures = Math.min(consecutiveFailures + 1, 16);
+            next = System.currentTimeMillis()
+                    + Math.min(Tools.TOKEN_RECHECK_INTERVAL, MIN_RETRY_DELAY << (consecutiveFailures - 1));
+        }
+        long latency = System.nanoTime() - start;
+        refreshCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        lastLatencyNanos = latency;
+        schedule(next);
+    }
+
+    private void schedule(long at) {
+        cancel();
+        try {
+            nextRefresh = scheduler.schedule(this::refresh, Math.max(0, at - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.fine("Credential refresh scheduler is shut down");
+        }
+    }
+
+    void cancel() {
+        ScheduledFuture<?> pending = nextRefresh;
+        if (pending != null)
+            pending.cancel(false);
+    }
+
+    CredentialRefreshStats stats() {
+        return new CredentialRefreshStats(dataLake, refreshCount.get(), updateCount.get(), failureCount.get(),
+                lastLatencyNanos, maxLatencyNanos.get(), totalLatencyNanos.get());
+    }
+}
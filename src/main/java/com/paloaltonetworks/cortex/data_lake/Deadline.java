@@ -0,0 +1,114 @@
+/**
+ * Deadline
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+/**
+ * Point in time by which a whole operation (i.e. a query, from the job creation
+ * to the last page) must be completed.
+ * 
+ * A deadline is set once and propagated to every request of the operation:
+ * each request gets the remaining budget as its timeout, retries that would not
+ * fit are not attempted and the server side {@code timeoutMs} and
+ * {@code maxWait} properties are capped to it. It is based on
+ * {@link System#nanoTime()} and therefore immune to wall clock changes.
+ */
+public final class Deadline {
+    private static final Duration MIN_TIMEOUT = Duration.ofMillis(1);
+    private final long expiresAt;
+    private final Duration budget;
+
+    private Deadline(Duration budget) {
+        this.budget = budget;
+        this.expiresAt = System.nanoTime() + budget.toNanos();
+    }
+
+    /**
+     * Deadline that expires after the provided budget.
+     * 
+     * @param budget time allowed from now
+     * @return the deadline
+     * @throws IllegalArgumentException if budget is null or negative
+     */
+    public static Deadline after(Duration budget) throws IllegalArgumentException {
+        if (budget == null || budget.isNegative())
+            throw new IllegalArgumentException("'budget' must be a positive duration");
+        return new Deadline(budget);
+    }
+
+    /**
+     * Time left before the deadline expires.
+     * 
+     * @return the remaining time (zero once expired)
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAt - System.nanoTime()));
+    }
+
+    /**
+     * Time left before the deadline expires.
+     * 
+     * @return milliseconds (zero once expired)
+     */
+    public long remainingMillis() {
+        return remaining().toMillis();
+    }
+
+    /**
+     * @return true once the deadline has passed
+     */
+    public boolean expired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Timeout of a request issued now.
+     * 
+     * @param timeout default request timeout (may be null)
+     * @return the smallest of the timeout and the remaining time (at least one
+     *         millisecond)
+     */
+    Duration timeout(Duration timeout) {
+        Duration remaining = remaining();
+        if (timeout != null && timeout.compareTo(remaining) < 0)
+            return timeout;
+        return (remaining.compareTo(MIN_TIMEOUT) < 0) ? MIN_TIMEOUT : remaining;
+    }
+
+    /**
+     * Caps a server side wait or timeout property.
+     * 
+     * @param millis value provided by the caller (null to use the remaining time)
+     * @return the smallest of the value and the remaining milliseconds
+     */
+    Integer cap(Integer millis) {
+        int remaining = (int) Math.min(Integer.MAX_VALUE, Math.max(1, remainingMillis()));
+        return (millis == null) ? remaining : Math.min(millis, remaining);
+    }
+
+    HttpTimeoutException exceeded() {
+        return new HttpTimeoutException("deadline of " + budget.toMillis() + " ms exceeded");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline(%d of %d ms left)", remainingMillis(), budget.toMillis());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * EndpointMetrics
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Snapshot of the request counters and latency histogram of an operation, data
+ * lake and status class. Counters are cumulative since the fetcher was
+ * created.
+ */
+public class EndpointMetrics {
+    /**
+     * Status class of the requests that failed without a response (I/O errors
+     * and timeouts)
+     */
+    public static final String ERROR = "error";
+    /**
+     * Operation name (createJob, getJobStatus, getJobsList, getJobResults,
+     * awaitJobResults for long polls, deleteJob or method and path for other
+     * requests)
+     */
+    public final String operation;
+    /**
+     * Data Lake identifier (null for the default credential or entry point)
+     */
+    public final String dataLake;
+    /**
+     * Response status class (i.e. 2xx or 5xx) or {@link #ERROR}
+     */
+    public final String statusClass;
+    /**
+     * Number of requests (attempts, when retried or hedged)
+     */
+    public final long requests;
+    /**
+     * Response body bytes received from the network
+     */
+    public final long bytes;
+    /**
+     * Sum of the request latencies (nanoseconds)
+     */
+    public final long totalNanos;
+    /**
+     * Highest request latency (nanoseconds)
+     */
+    public final long maxNanos;
+    private final long[] buckets;
+
+    EndpointMetrics(String operation, String dataLake, String statusClass, long requests, long bytes,
+            long totalNanos, long maxNanos, long[] buckets) {
+        this.operation = operation;
+        this.dataLake = dataLake;
+        this.statusClass = statusClass;
+        this.requests = requests;
+        this.bytes = bytes;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Latency percentile. The latency includes the concurrency limiter queue,
+     * the network exchange and the response decoding of a single attempt.
+     * 
+     * @param percentile value between 0 and 1 (i.e. 0.99)
+     * @return nanoseconds (at most 12.5% above the actual value) or 0 if there
+     *         are no requests
+     * @throws IllegalArgumentException if percentile is not between 0 and 1
+     */
+    public long percentileNanos(double percentile) throws IllegalArgumentException {
+        if (percentile < 0 || percentile > 1)
+            throw new IllegalArgumentException("'percentile' must be between 0 and 1");
+        if (requests == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * requests));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(maxNanos, LatencyHistogram.upperBound(i));
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Mean request latency.
+     * 
+     * @return nanoseconds or 0 if there are no requests
+     */
+    public long meanNanos() {
+        return (requests == 0) ? 0 : totalNanos / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s: %d requests, %d bytes, p50 %d us, p99 %d us, max %d us", operation,
+                dataLake, statusClass, requests, bytes, percentileNanos(0.5) / 1000, percentileNanos(0.99) / 1000,
+                maxNanos / 1000);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * HedgePolicy
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.time.Duration;
+
+/**
+ * Hedging policy for job results page requests.
+ * 
+ * When a page request takes longer than the given percentile of the recent
+ * page latencies, a duplicate request is sent (on the least loaded connection).
+ * The first response wins and the other request is cancelled.
+ */
+public class HedgePolicy {
+    /**
+     * Number of page latencies to collect before hedging starts
+     */
+    static final int MIN_SAMPLES = 20;
+    final double percentile;
+    final long minDelayNanos;
+
+    /**
+     * Creates a hedging policy.
+     * 
+     * @param percentile latency percentile (i.e. 0.95) after which the duplicate
+     *                   request is sent
+     * @param minDelay   the duplicate request is never sent earlier than this
+     * @throws IllegalArgumentException if percentile is not between 0 and 1 or
+     *                                  minDelay is negative
+     */
+    public HedgePolicy(double percentile, Duration minDelay) throws IllegalArgumentException {
+        if (!(percentile > 0 && percentile < 1))
+            throw new IllegalArgumentException("'percentile' must be between 0 and 1");
+        if (minDelay.isNegative())
+            throw new IllegalArgumentException("'minDelay' can't be negative");
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * HedgeStats
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Snapshot of the hedged request counters of a fetcher.
+ */
+public class HedgeStats {
+    /**
+     * Number of requests eligible for hedging
+     */
+    public final long requests;
+    /**
+     * Number of duplicate requests sent
+     */
+    public final long hedges;
+    /**
+     * Number of times the duplicate request answered first
+     */
+    public final long hedgeWins;
+    /**
+     * Current hedging delay (nanoseconds) or -1 if not enough latency samples
+     * have been collected yet
+     */
+    public final long delayNanos;
+
+    HedgeStats(long requests, long hedges, long hedgeWins, long delayNanos) {
+        this.requests = requests;
+        this.hedges = hedges;
+        this.hedgeWins = hedgeWins;
+        this.delayNanos = delayNanos;
+    }
+}
@@ -17,64 +17,131 @@
 
 package com.paloaltonetworks.cortex.data_lake;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.Builder;
 import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
 import java.net.http.HttpClient.Version;
 import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
 import java.security.KeyManagementException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
-import javax.net.ssl.KeyManagerFactory;
-import javax.json.Json;
 import javax.json.JsonStructure;
-import javax.json.stream.JsonParsingException;
+
+import com.paloaltonetworks.cortex.data_lake.CredentialSlot.UrlContext;
 
 /**
  * Builds on top of {@link java.net.http.HttpClient} to implement a HTTP2
  * fetcher for Cortex API endpoints.
+ * 
+ * Credentials are refreshed ahead of their expiration by a background daemon
+ * thread. Use {@link #close()} to stop it once the fetcher is no longer needed.
+ * 
+ * A fetcher can open several HTTP/2 connections to each entry point (see the
+ * {@code connections} constructor argument). Requests are routed to the
+ * connection with the fewest in-flight requests, which helps when a single
+ * connection hits the server concurrent streams limit. The TLS context (and
+ * with it the TLS session cache) is shared by all fetchers created with the
+ * same keystore or trust settings, so the certificate container is loaded only
+ * once per process.
+ * 
+ * Asynchronous responses are decoded outside the HttpClient threads, in the
+ * fetcher executor or, when set, in a dedicated parse executor (see
+ * {@link #setParseExecutor(Executor)}). The network side receives the whole
+ * response body first, so decoding never blocks waiting for the network.
+ * 
+ * Compressed (gzip or deflate) responses are inflated while being parsed. Ask
+ * for them with {@link #setAcceptCompressed(boolean)} or with a per request
+ * {@code accept-encoding} header.
+ * 
+ * In-flight requests to each data lake are capped by an adaptive limit (see
+ * {@link #setConcurrencyLimits(int, int)}). Requests over the limit are queued.
+ * 
+ * Idempotent requests (GET and DELETE) failing with I/O errors or 429, 502,
+ * 503 and 504 responses are retried (see {@link #setRetryPolicy(RetryPolicy)}).
+ * Job results page requests can also be hedged (see
+ * {@link #setHedgePolicy(HedgePolicy)}). Degraded entry points can be isolated
+ * with circuit breakers (see {@link #setCircuitBreakerPolicy(CircuitBreakerPolicy)}).
+ * Concurrent identical GET requests can share a single network call (see
+ * {@link #setCoalescing(boolean)}).
+ * 
+ * Use {@link #warmUp(CredentialTuple...)} to open the connections and check the
+ * credentials of every entry point ahead of the first query, and
+ * {@link #setKeepAlive(Duration)} to keep them open while idle. Per operation
+ * latency histograms and counters are available from {@link #metrics()} or can
+ * be pushed to a {@link MetricsExporter}.
  */
-public class Http2Fetch {
-    static class UrlContext {
-        String entryPoint;
-        String authHeader;
-
-        UrlContext(Function<Boolean, Map.Entry<String, String>> cred) {
-            Map.Entry<String, String> credData = cred.apply(true);
-            entryPoint = credData.getKey();
-            authHeader = "Bearer " + credData.getValue();
-        }
-    }
-
-    private final HttpClient client;
+public class Http2Fetch implements Transport {
+    /**
+     * Content codings this fetcher is able to decode
+     */
+    public static final String ACCEPT_COMPRESSED = "gzip, deflate";
+    private final ClientPool pool;
+    private final Executor executor;
+    private volatile Executor parseExecutor = null;
+    private volatile boolean acceptCompressed = false;
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+    private volatile int initialLimit = 20;
+    private volatile int maxLimit = 500;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private final RetryBudget retryBudget = new RetryBudget();
+    private volatile RequestHedger hedger = null;
+    private volatile boolean coalescing = false;
+    private final Map<String, CredentialTuple> knownTuples = new ConcurrentHashMap<String, CredentialTuple>();
+    private volatile ScheduledFuture<?> keepAlive = null;
+    private final RequestMetrics metrics = new RequestMetrics();
+    private volatile ScheduledFuture<?> metricsExport = null;
+    /**
+     * Cheap authenticated request used to prime connections: the job does not
+     * exist, so a valid credential gets a 404 response.
+     */
+    static final String PROBE_PATH = Constants.EP_QUERY + "jobs/connection-probe";
+    private final SingleFlight<CortexApiResult<JsonStructure>> singleFlight;
+    private volatile CircuitBreakerPolicy circuitBreakerPolicy = null;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final List<Consumer<CircuitBreakerEvent>> circuitListeners;
     private final Duration timeout;
-    private final Map<String, UrlContext> urlContextCache;
-    private final Function<Boolean, Map.Entry<String, String>> defCred;
-    private final UrlContext defCredUrlContext;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, CredentialSlot> urlContextCache;
+    private final CredentialSlot defCred;
     private final String defaultEntryPoint;
-    private final Lock defLocker;
-    private final Lock cacheLocker;
+    private final JsonBodyHandler jsonBodyHandler = new JsonBodyHandler();
     private static Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
 
     /**
@@ -86,6 +153,11 @@ public class Http2Fetch {
      * @param defaultEntryPoint fqdn for the Cortex Data Lake API to use (region)
      * @param timeout           Timeout passed to any request triggered by this
      *                          instance
+     * @param connections       Number of HTTP/2 connections to open to each
+     *                          entry point
+     * @param executor          Executor for the HttpClient asynchronous tasks and
+     *                          the response decoding (null to use the defaults).
+     *                          See {@link #virtualThreadExecutor()}
      * @throws KeyStoreException         In case there is any issue processing
      *                                   certificates.
      * @throws NoSuchAlgorithmException  In case there is any issue processing
@@ -99,29 +171,144 @@ public class Http2Fetch {
      * @throws KeyManagementException    In case there is any issue processing
      *                                   certificates.
      */
-    public Http2Fetch(String keystore, char[] password, String defaultEntryPoint, Duration timeout)
-            throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
+    public Http2Fetch(String keystore, char[] password, String defaultEntryPoint, Duration timeout, int connections,
+            Executor executor) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
             UnrecoverableKeyException, KeyManagementException {
-        KeyStore ks = KeyStore.getInstance(new File(keystore), password);
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX");
-        kmf.init(ks, password);
-        SSLContext sc = SSLContext.getInstance("TLS");
-        // TODO allow trust manager and random generator to be provided in a constructor
-        // overflow
-        sc.init(kmf.getKeyManagers(), null, null);
-        client = HttpClient.newBuilder().version(Version.HTTP_2).sslContext(sc).build();
+        SSLContext sc = TlsContexts.forKeyStore(keystore, password);
+        this.executor = (executor == null) ? ForkJoinPool.commonPool() : executor;
+        pool = new ClientPool(connections, clientFactory(sc, executor));
         this.timeout = timeout;
         this.defaultEntryPoint = defaultEntryPoint;
-        urlContextCache = new ConcurrentHashMap<String, UrlContext>();
-        defCredUrlContext = null;
+        scheduler = newScheduler();
+        circuitListeners = new CopyOnWriteArrayList<Consumer<CircuitBreakerEvent>>();
+        singleFlight = new SingleFlight<CortexApiResult<JsonStructure>>();
+        urlContextCache = new ConcurrentHashMap<String, CredentialSlot>();
         defCred = null;
-        defLocker = new ReentrantLock();
-        cacheLocker = new ReentrantLock();
+    }
+
+    /**
+     * Creates a mTLS HTTP2 fetcher using the certificate provided and the default
+     * executors.
+     * 
+     * @param keystore          filename containing the client certificate
+     * @param password          password to decrypt the client certificate (use null
+     *                          for no encryption)
+     * @param defaultEntryPoint fqdn for the Cortex Data Lake API to use (region)
+     * @param timeout           Timeout passed to any request triggered by this
+     *                          instance
+     * @param connections       Number of HTTP/2 connections to open to each
+     *                          entry point
+     * @throws KeyStoreException         In case there is any issue processing
+     *                                   certificates.
+     * @throws NoSuchAlgorithmException  In case there is any issue processing
+     *                                   certificates.
+     * @throws CertificateException      In case there is any issue processing
+     *                                   certificates.
+     * @throws IOException               In case there is any issue opening the
+     *                                   container file.
+     * @throws UnrecoverableKeyException In case there is any issue processing
+     *                                   certificates.
+     * @throws KeyManagementException    In case there is any issue processing
+     *                                   certificates.
+     */
+    public Http2Fetch(String keystore, char[] password, String defaultEntryPoint, Duration timeout, int connections)
+            throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
+            UnrecoverableKeyException, KeyManagementException {
+        this(keystore, password, defaultEntryPoint, timeout, connections, null);
+    }
+
+    /**
+     * Creates a mTLS HTTP2 fetcher using the certificate provided and a single
+     * connection per entry point.
+     * 
+     * @param keystore          filename containing the client certificate
+     * @param password          password to decrypt the client certificate (use null
+     *                          for no encryption)
+     * @param defaultEntryPoint fqdn for the Cortex Data Lake API to use (region)
+     * @param timeout           Timeout passed to any request triggered by this
+     *                          instance
+     * @throws KeyStoreException         In case there is any issue processing
+     *                                   certificates.
+     * @throws NoSuchAlgorithmException  In case there is any issue processing
+     *                                   certificates.
+     * @throws CertificateException      In case there is any issue processing
+     *                                   certificates.
+     * @throws IOException               In case there is any issue opening the
+     *                                   container file.
+     * @throws UnrecoverableKeyException In case there is any issue processing
+     *                                   certificates.
+     * @throws KeyManagementException    In case there is any issue processing
+     *                                   certificates.
+     */
+    public Http2Fetch(String keystore, char[] password, String defaultEntryPoint, Duration timeout)
+            throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException,
+            UnrecoverableKeyException, KeyManagementException {
+        this(keystore, password, defaultEntryPoint, timeout, 1);
     }
 
     /**
      * Creates a JWT HTTP2 fetcher
      * 
+     * @param cred        If not null then this object will be used as the
+     *                    credentials for any request that does not override it.
+     * @param timeout     Timeout passed to any request triggered by this
+     *                    instance
+     * @param unsecure    To change default behavior and trust any server
+     *                    certificate
+     * @param connections Number of HTTP/2 connections to open to each entry
+     *                    point
+     * @param executor    Executor for the HttpClient asynchronous tasks and the
+     *                    response decoding (null to use the defaults). See
+     *                    {@link #virtualThreadExecutor()}
+     * @throws NoSuchAlgorithmException underlying SSL support issue
+     * @throws KeyManagementException   underlying SSL support issues
+     */
+    public Http2Fetch(Function<Boolean, Map.Entry<String, String>> cred, Duration timeout, boolean unsecure,
+            int connections, Executor executor) throws NoSuchAlgorithmException, KeyManagementException {
+        this(cred, timeout, connections, executor, clientFactory(TlsContexts.forTrust(unsecure), executor));
+    }
+
+    /**
+     * Creates a JWT HTTP2 fetcher on top of the clients built by the provided
+     * factory.
+     */
+    Http2Fetch(Function<Boolean, Map.Entry<String, String>> cred, Duration timeout, int connections,
+            Executor executor, Supplier<HttpClient> clients) {
+        this.timeout = timeout;
+        this.defaultEntryPoint = null;
+        scheduler = newScheduler();
+        circuitListeners = new CopyOnWriteArrayList<Consumer<CircuitBreakerEvent>>();
+        singleFlight = new SingleFlight<CortexApiResult<JsonStructure>>();
+        urlContextCache = new ConcurrentHashMap<String, CredentialSlot>();
+        defCred = (cred == null) ? null : new CredentialSlot(null, cred, scheduler);
+        if (defCred != null)
+            defCred.start();
+        this.executor = (executor == null) ? ForkJoinPool.commonPool() : executor;
+        pool = new ClientPool(connections, clients);
+    }
+
+    /**
+     * Creates a JWT HTTP2 fetcher with the default executors.
+     * 
+     * @param cred        If not null then this object will be used as the
+     *                    credentials for any request that does not override it.
+     * @param timeout     Timeout passed to any request triggered by this
+     *                    instance
+     * @param unsecure    To change default behavior and trust any server
+     *                    certificate
+     * @param connections Number of HTTP/2 connections to open to each entry
+     *                    point
+     * @throws NoSuchAlgorithmException underlying SSL support issue
+     * @throws KeyManagementException   underlying SSL support issues
+     */
+    public Http2Fetch(Function<Boolean, Map.Entry<String, String>> cred, Duration timeout, boolean unsecure,
+            int connections) throws NoSuchAlgorithmException, KeyManagementException {
+        this(cred, timeout, unsecure, connections, null);
+    }
+
+    /**
+     * Creates a JWT HTTP2 fetcher with a single connection per entry point.
+     * 
      * @param cred     If not null then this object will be used as the credentials
      *                 for any request that does not override it.
      * @param timeout  Timeout passed to any request triggered by this instance
@@ -131,37 +318,7 @@ public class Http2Fetch {
      */
     public Http2Fetch(Function<Boolean, Map.Entry<String, String>> cred, Duration timeout, boolean unsecure)
             throws NoSuchAlgorithmException, KeyManagementException {
-        this.timeout = timeout;
-        this.defaultEntryPoint = null;
-        urlContextCache = new ConcurrentHashMap<String, UrlContext>();
-        if (cred != null) {
-            defCred = cred;
-            defCredUrlContext = new UrlContext(cred);
-            logger.info("Updated authentication header for default data lake");
-        } else {
-            defCred = null;
-            defCredUrlContext = null;
-        }
-        SSLContext sc = SSLContext.getInstance("TLS");
-        if (unsecure) {
-            TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
-
-                public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                }
-
-                public void checkServerTrusted(X509Certificate[] certs, String authType) {
-                }
-            } };
-            sc.init(null, trustAllCerts, null);
-        } else {
-            sc.init(null, null, null);
-        }
-        client = HttpClient.newBuilder().version(Version.HTTP_2).sslContext(sc).build();
-        defLocker = new ReentrantLock();
-        cacheLocker = new ReentrantLock();
+        this(cred, timeout, unsecure, 1);
     }
 
     /**
@@ -188,11 +345,10 @@ public class Http2Fetch {
     }
 
     /**
-     * If you're planning to use this Http2Fetch object in a multi-thread
-     * application then you must initialize in advance all credentials that will be
-     * used to avoid race conditions in the lazy init procedure.
-     * 
-     * Please notice that the init process, itself, is not thread-safe.
+     * Primes the credential cache for the provided credential tuple. Credentials
+     * are lazily (and safely) initialized on first use so calling this method is
+     * optional, but it moves the credential provider round trip out of the first
+     * request. Once initialized, the credential is refreshed in the background.
      * 
      * @param ct credential tuple that should be initialized
      * @throws URISyntaxException  unsupported usage of this object
@@ -203,9 +359,8 @@ public class Http2Fetch {
     }
 
     /**
-     * If you're planning to use this Http2Fetch object in a multi-thread
-     * application then you must initialize in advance its default credentials
-     * object.
+     * Primes the default credentials object of this fetcher. Calling this method
+     * is optional.
      * 
      * @throws URISyntaxException  unsupported usage of this object
      * @throws Http2FetchException unsupported usage of this object
@@ -214,235 +369,1079 @@ public class Http2Fetch {
         getRequest("", null);
     }
 
-    private Builder getRequest(String path, CredentialTuple ct) throws Http2FetchException, URISyntaxException {
-        if (ct == null && defCred == null) {
-            if (defaultEntryPoint == null) {
-                throw new Http2FetchException("object does not have default entry point neither default credential");
+    /**
+     * Warms up the fetcher: in parallel, gets the credentials and opens (TLS and
+     * HTTP/2 handshake) every pooled connection to the entry point of the default
+     * credential (or default entry point), of every credential tuple already used
+     * with this fetcher and of the provided ones. Each connection receives a
+     * probe request, so invalid credentials are reported too.
+     * 
+     * @param tuples additional credential tuples to warm up
+     * @return a future with the outcome for each credential
+     */
+    @Override
+    public CompletableFuture<List<WarmUpResult>> warmUp(CredentialTuple... tuples) {
+        Map<String, CredentialTuple> targets = new HashMap<String, CredentialTuple>(knownTuples);
+        for (CredentialTuple ct : tuples)
+            targets.put(ct.dlid, ct);
+        List<CompletableFuture<WarmUpResult>> results = new ArrayList<CompletableFuture<WarmUpResult>>();
+        if (defCred != null || defaultEntryPoint != null)
+            results.add(warmUp((CredentialTuple) null));
+        targets.values().forEach(ct -> results.add(warmUp(ct)));
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(ignore -> {
+            List<WarmUpResult> list = new ArrayList<WarmUpResult>(results.size());
+            results.forEach(result -> list.add(result.join()));
+            return list;
+        });
+    }
+
+    private CompletableFuture<WarmUpResult> warmUp(CredentialTuple ct) {
+        long start = System.nanoTime();
+        String dlid = (ct == null) ? null : ct.dlid;
+        // resolving the credential may block on the credential provider
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return getRequest(PROBE_PATH, ct).GET().build();
+            } catch (Http2FetchException | URISyntaxException e) {
+                throw new CompletionException(e);
             }
-            return null;
-        }
-        Builder reqBuilder = null;
-        if (ct != null) {
-            UrlContext cacheEntry = urlContextCache.get(ct.dlid);
-            if (cacheLocker.tryLock()) {
-                try {
-                    if (cacheEntry == null) {
-                        cacheEntry = new UrlContext(ct.cred);
-                        urlContextCache.put(ct.dlid, cacheEntry);
-                        logger.info("Updated authentication header for data lake " + ct.dlid);
-                    } else {
-                        Map.Entry<String, String> credData = ct.cred.apply(false);
-                        if (credData != null) {
-                            cacheEntry.authHeader = "Bearer " + credData.getValue();
-                            logger.info("Updated authentication header for data lake " + ct.dlid);
-                        }
-                    }
-                } finally {
-                    cacheLocker.unlock();
+        }, executor).thenCompose(request -> probe(request).thenApply(statuses -> {
+            String entryPoint = request.uri().getAuthority();
+            int connections = 0;
+            int statusCode = -1;
+            Throwable error = null;
+            for (Object status : statuses) {
+                if (status instanceof HttpResponse) {
+                    statusCode = ((HttpResponse<?>) status).statusCode();
+                    connections++;
+                } else if (error == null) {
+                    error = (Throwable) status;
                 }
             }
-            if (cacheEntry == null) {
-                throw new Http2FetchException("race condition: use init(cred) before entering into parallel mode");
+            if (logger.isLoggable(Level.FINE))
+                logger.fine(String.format("Warmed up %d connections to %s for data lake %s (status %d)", connections,
+                        entryPoint, dlid, statusCode));
+            return new WarmUpResult(dlid, entryPoint, connections, statusCode, System.nanoTime() - start, error);
+        })).exceptionally(e -> new WarmUpResult(dlid, null, 0, -1, System.nanoTime() - start, Tools.unwrap(e)));
+    }
+
+    /**
+     * Sends a request on every pooled client that has no request in flight to
+     * the target host.
+     * 
+     * @return a future with either the response or the error of each probe
+     */
+    private CompletableFuture<Object[]> probe(HttpRequest request) {
+        String host = request.uri().getHost();
+        int[] load = pool.load(host);
+        List<CompletableFuture<Object>> probes = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < load.length; i++)
+            if (load[i] == 0)
+                probes.add(pool.client(i).sendAsync(request, BodyHandlers.discarding())
+                        .handle((response, e) -> (e == null) ? response : Tools.unwrap(e)));
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).thenApply(ignore -> {
+            Object[] statuses = new Object[probes.size()];
+            for (int i = 0; i < statuses.length; i++)
+                statuses[i] = probes.get(i).join();
+            return statuses;
+        });
+    }
+
+    /**
+     * Keeps idle connections open by sending a probe request on them
+     * periodically. The JDK HttpClient does not expose HTTP/2 PING frames, so a
+     * tiny authenticated request is used instead. Connections with requests in
+     * flight are skipped.
+     * 
+     * @param interval time between probes (null to stop the keep alive)
+     */
+    public void setKeepAlive(Duration interval) {
+        Tools.cancel(keepAlive);
+        keepAlive = null;
+        if (interval == null)
+            return;
+        long period = interval.toMillis();
+        keepAlive = scheduler.scheduleAtFixedRate(() -> warmUp().thenAccept(results -> results.forEach(result -> {
+            if (!result.ok())
+                logger.info(String.format("Keep alive probe to %s for data lake %s failed (status %d): %s",
+                        result.entryPoint, result.dataLake, result.statusCode, result.error));
+        })), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Request metrics snapshot: latency histogram, request and byte counters for
+     * every operation (createJob, getJobStatus, getJobResults, awaitJobResults
+     * for long polls, ...), data lake
+     * and response status class. I/O errors are reported with the
+     * {@link EndpointMetrics#ERROR} status class. Retried and hedged requests
+     * count every attempt.
+     * 
+     * @return cumulative metrics since the fetcher was created
+     */
+    @Override
+    public List<EndpointMetrics> metrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Periodically pushes the {@link #metrics()} snapshot to an exporter. Only
+     * one exporter is active at a time.
+     * 
+     * @param exporter exporter (null to stop exporting)
+     * @param interval time between snapshots
+     */
+    public void setMetricsExporter(MetricsExporter exporter, Duration interval) {
+        Tools.cancel(metricsExport);
+        metricsExport = null;
+        if (exporter == null)
+            return;
+        long period = interval.toMillis();
+        metricsExport = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(metrics.snapshot());
+            } catch (RuntimeException e) {
+                logger.info("Metrics exporter failed due to: " + e.getMessage());
             }
-            reqBuilder = HttpRequest.newBuilder(new URI("https://" + cacheEntry.entryPoint + path));
-            reqBuilder.header("authorization", cacheEntry.authHeader);
-        }
-        if (ct == null && defCred != null) {
-            if (defLocker.tryLock()) {
-                try {
-                    Map.Entry<String, String> credData = defCred.apply(false);
-                    if (credData != null) {
-                        defCredUrlContext.authHeader = "Bearer " + credData.getValue();
-                        logger.info("Updated authentication header for default data lake");
-                    }
-                } finally {
-                    defLocker.unlock();
-                }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Background credential refresh counters for every data lake credential
+     * tuple used with this fetcher.
+     * 
+     * @return a map of counters snapshots keyed by data lake identifier
+     */
+    public Map<String, CredentialRefreshStats> refreshStats() {
+        Map<String, CredentialRefreshStats> stats = new HashMap<String, CredentialRefreshStats>();
+        urlContextCache.forEach((dlid, slot) -> stats.put(dlid, slot.stats()));
+        return stats;
+    }
+
+    /**
+     * Background credential refresh counters for the default credential.
+     * 
+     * @return a counters snapshot or null if this fetcher has no default
+     *         credential
+     */
+    public CredentialRefreshStats defaultRefreshStats() {
+        return (defCred == null) ? null : defCred.stats();
+    }
+
+    /**
+     * Stops the background credential refresh. Requests issued after closing
+     * the fetcher keep using the last known credentials.
+     */
+    @Override
+    public void close() {
+        Tools.cancel(keepAlive);
+        Tools.cancel(metricsExport);
+        urlContextCache.values().forEach(CredentialSlot::cancel);
+        if (defCred != null)
+            defCred.cancel();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Asks the server to compress the response body of every request issued by
+     * this fetcher. Compressed bodies are inflated on the fly while parsed.
+     * Individual requests can override it with their own
+     * {@code accept-encoding} header (i.e. {@code identity}). Configure it before
+     * the fetcher is shared between threads.
+     * 
+     * @param acceptCompressed true to send {@code accept-encoding: gzip, deflate}
+     */
+    public void setAcceptCompressed(boolean acceptCompressed) {
+        this.acceptCompressed = acceptCompressed;
+    }
+
+    @Override
+    public Duration requestTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Response body transfer counters. Compare the wire and decoded byte
+     * counters to measure the bandwidth saving of compressed responses.
+     * 
+     * @return a counters snapshot
+     */
+    @Override
+    public TransferStats transferStats() {
+        return jsonBodyHandler.stats();
+    }
+
+    /**
+     * Tunes the adaptive limit of in-flight requests per data lake. The limit
+     * starts at initialLimit, grows while requests succeed and shrinks on 429 and
+     * 503 responses, timeouts and latency spikes. Requests over the limit wait for
+     * a free slot. Applies to data lakes contacted after the call, so configure it
+     * before the fetcher is shared between threads.
+     * 
+     * @param initialLimit starting limit (defaults to 20)
+     * @param maxLimit     upper bound of the limit (defaults to 500)
+     * @throws IllegalArgumentException if the limits are lower than 1 or
+     *                                  inconsistent
+     */
+    public void setConcurrencyLimits(int initialLimit, int maxLimit) throws IllegalArgumentException {
+        if (initialLimit < 1 || maxLimit < initialLimit)
+            throw new IllegalArgumentException("limits must satisfy 1 <= initialLimit <= maxLimit");
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Sets the retry policy for idempotent (GET and DELETE) requests. Defaults to
+     * {@link RetryPolicy#DEFAULT}. Configure it before the fetcher is shared
+     * between threads.
+     * 
+     * @param retryPolicy policy to use (null disables retries)
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Retry counters of this fetcher.
+     * 
+     * @return a counters snapshot
+     */
+    public RetryStats retryStats() {
+        return new RetryStats(retryBudget.retries(), retryBudget.exhausted());
+    }
+
+    /**
+     * Enables hedging of the requests issued with the hedged GET methods (job
+     * results pages). Configure it before the fetcher is shared between threads.
+     * 
+     * @param hedgePolicy policy to use (null disables hedging)
+     */
+    @Override
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        hedger = (hedgePolicy == null) ? null : new RequestHedger(hedgePolicy);
+    }
+
+    /**
+     * Hedged request counters of this fetcher.
+     * 
+     * @return a counters snapshot or null if hedging is not enabled
+     */
+    @Override
+    public HedgeStats hedgeStats() {
+        RequestHedger current = hedger;
+        return (current == null) ? null : current.stats();
+    }
+
+    /**
+     * Enables or disables (disabled by default) the coalescing of identical GET
+     * requests: while a GET for a path, credential and set of request headers is
+     * in flight, identical requests wait for it and share its parsed result. A
+     * request that joins another one waits no longer than its own deadline, and
+     * is sent again if the other one times out or is cancelled. Configure it
+     * before the fetcher is shared between threads.
+     * 
+     * @param coalescing true to share the result of identical GET requests
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Number of GET requests served by an identical in-flight request.
+     * 
+     * @return coalesced requests count
+     */
+    public long coalescedRequests() {
+        return singleFlight.coalesced();
+    }
+
+    /**
+     * Enables a circuit breaker per entry point and data lake. While a circuit is
+     * open, requests fail immediately with {@link CircuitBreakerOpenException}
+     * instead of waiting for the timeout. Configure it before the fetcher is
+     * shared between threads.
+     * 
+     * @param circuitBreakerPolicy thresholds (null disables the circuit breakers)
+     */
+    @Override
+    public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        breakers.clear();
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+    }
+
+    /**
+     * Registers a listener for circuit breaker state changes. Listeners are
+     * called synchronously from the thread that completes the request that
+     * triggered the change, so they should hand off any heavy work.
+     * 
+     * @param listener state change listener
+     */
+    @Override
+    public void addCircuitBreakerListener(Consumer<CircuitBreakerEvent> listener) {
+        circuitListeners.add(listener);
+    }
+
+    /**
+     * Removes a circuit breaker state change listener.
+     * 
+     * @param listener listener to remove
+     */
+    public void removeCircuitBreakerListener(Consumer<CircuitBreakerEvent> listener) {
+        circuitListeners.remove(listener);
+    }
+
+    /**
+     * Current circuit breaker states.
+     * 
+     * @return states keyed by entry point (followed by "/" and the data lake
+     *         identifier for credential tuple requests)
+     */
+    public Map<String, CircuitBreakerEvent.State> circuitBreakerStates() {
+        Map<String, CircuitBreakerEvent.State> states = new HashMap<String, CircuitBreakerEvent.State>();
+        breakers.forEach((key, breaker) -> states.put(key, breaker.state()));
+        return states;
+    }
+
+    /**
+     * Adaptive concurrency limiter state of every data lake contacted by this
+     * fetcher. Requests using the default credential are keyed by entry point.
+     * 
+     * @return a map of limiter snapshots keyed by data lake identifier
+     */
+    public Map<String, ConcurrencyStats> concurrencyStats() {
+        Map<String, ConcurrencyStats> stats = new HashMap<String, ConcurrencyStats>();
+        limiters.forEach((key, limiter) -> stats.put(key, limiter.stats()));
+        return stats;
+    }
+
+    /**
+     * Moves the JSON decoding of asynchronous responses (and any parsing chained
+     * to them by {@link QueryService}) to the provided executor, so large pages
+     * don't hold up the completion of other responses. Configure it before the
+     * fetcher is shared between threads.
+     * 
+     * @param parseExecutor executor for JSON decoding (null to decode in the
+     *                      fetcher executor). See {@link #newParseExecutor(int)}
+     */
+    @Override
+    public void setParseExecutor(Executor parseExecutor) {
+        this.parseExecutor = parseExecutor;
+    }
+
+    /**
+     * Creates a bounded pool of daemon threads meant to be used as parse
+     * executor. The caller owns the pool and must shut it down.
+     * 
+     * @param threads number of threads (usually the number of available CPUs)
+     * @return a fixed size thread pool
+     * @throws IllegalArgumentException if threads is lower than 1
+     */
+    public static ExecutorService newParseExecutor(int threads) throws IllegalArgumentException {
+        return Executors.newFixedThreadPool(threads, Tools.daemonThreadFactory("cortex-json-parse"));
+    }
+
+    /**
+     * Creates an executor that runs every task in a new virtual thread. Meant to
+     * be provided to the constructors of this class (or to
+     * {@link QueryServiceClient}) so thousands of concurrent queries don't tie up
+     * platform threads.
+     * 
+     * @return a virtual thread per task executor
+     * @throws UnsupportedOperationException if the running JVM does not support
+     *                                       virtual threads (Java 21+)
+     */
+    public static ExecutorService virtualThreadExecutor() throws UnsupportedOperationException {
+        return Tools.virtualThreadExecutor();
+    }
+
+    private static Supplier<HttpClient> clientFactory(SSLContext sc, Executor executor) {
+        return () -> {
+            HttpClient.Builder builder = HttpClient.newBuilder().version(Version.HTTP_2).sslContext(sc);
+            if (executor != null)
+                builder.executor(executor);
+            return builder.build();
+        };
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                Tools.daemonThreadFactory("cortex-credential-refresh"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * The first token of a data lake is fetched outside of the cache map, so a
+     * slow credential provider does not block the requests of other data
+     * lakes. Concurrent first requests may each call the provider: only the
+     * slot that gets published is kept and refreshed.
+     */
+    private UrlContext urlContext(CredentialTuple ct) {
+        CredentialSlot slot = urlContextCache.get(ct.dlid);
+        if (slot == null) {
+            knownTuples.putIfAbsent(ct.dlid, ct);
+            CredentialSlot created = new CredentialSlot(ct.dlid, ct.cred, scheduler);
+            slot = urlContextCache.putIfAbsent(ct.dlid, created);
+            if (slot == null) {
+                slot = created;
+                slot.start();
             }
-            reqBuilder = HttpRequest.newBuilder(new URI("https://" + defCredUrlContext.entryPoint + path));
-            reqBuilder.header("authorization", defCredUrlContext.authHeader);
         }
-        if (reqBuilder == null) {
+        return slot.get();
+    }
+
+    private Builder getRequest(String path, CredentialTuple ct) throws Http2FetchException, URISyntaxException {
+        return getRequest(path, ct, null);
+    }
+
+    private Builder getRequest(String path, CredentialTuple ct, Deadline deadline)
+            throws Http2FetchException, URISyntaxException {
+        Builder reqBuilder;
+        if (ct != null || defCred != null) {
+            UrlContext context = (ct != null) ? urlContext(ct) : defCred.get();
+            reqBuilder = HttpRequest.newBuilder(new URI("https://" + context.entryPoint + path));
+            reqBuilder.header("authorization", context.authHeader);
+        } else if (defaultEntryPoint != null) {
             reqBuilder = HttpRequest.newBuilder(new URI("https://" + defaultEntryPoint + path));
+        } else {
+            throw new Http2FetchException("object does not have default entry point neither default credential");
         }
-        if (timeout != null)
-            reqBuilder.timeout(timeout);
+        Duration requestTimeout = (deadline == null) ? timeout : deadline.timeout(timeout);
+        if (requestTimeout != null)
+            reqBuilder.timeout(requestTimeout);
+        if (acceptCompressed)
+            reqBuilder.header("accept-encoding", ACCEPT_COMPRESSED);
         return reqBuilder;
     }
 
-    private CortexApiResult<JsonStructure> op(HttpRequest request) throws InterruptedException, IOException {
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        logger.finer("HTTP2 response status code: " + response.statusCode());
-        String responseBody = response.body();
-        if (responseBody.equals("null")) {
-            logger.finer("HTTP2 response body is null");
+    /**
+     * Sets the optional per request headers. Unlike
+     * {@link Builder#headers(String...)} they replace any default value (i.e.
+     * {@code accept-encoding}).
+     */
+    private static void setHeaders(Builder reqBuilder, String... headers) throws IllegalArgumentException {
+        if (headers.length % 2 != 0)
+            throw new IllegalArgumentException("wrong number, " + headers.length + ", of parameters");
+        for (int i = 0; i < headers.length; i += 2)
+            reqBuilder.setHeader(headers[i], headers[i + 1]);
+    }
+
+    private static void logRequest(HttpRequest request) {
+        if (logger.isLoggable(Level.FINE))
+            logger.fine(String.format("%s op to %s", request.method(), request.uri()));
+    }
+
+    /**
+     * Whether the server may hold the request on purpose (a job results long
+     * poll with a {@code maxWait}), in which case its round trip time says
+     * nothing about the data lake load and it does not take a concurrency
+     * limiter slot.
+     */
+    private static boolean heldByServer(HttpRequest request) {
+        String query = request.uri().getRawQuery();
+        if (query == null)
+            return false;
+        for (String param : query.split("&"))
+            if (param.startsWith("maxWait=") && !param.equals("maxWait=0"))
+                return true;
+        return false;
+    }
+
+    private ConcurrencyLimiter limiter(CredentialTuple ct, String host) {
+        String key = (ct != null) ? ct.dlid : host;
+        ConcurrencyLimiter limiter = limiters.get(key);
+        if (limiter == null)
+            limiter = limiters.computeIfAbsent(key, k -> new ConcurrencyLimiter(k, initialLimit, maxLimit));
+        return limiter;
+    }
+
+    /**
+     * Outcome of a single request attempt.
+     */
+    private static final class Exchange {
+        final CortexApiResult<JsonStructure> result;
+        final int statusCode;
+        final HttpHeaders headers;
+        final long bytes;
+
+        Exchange(CortexApiResult<JsonStructure> result, int statusCode, HttpHeaders headers, long bytes) {
+            this.result = result;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Decodes the response body. Blocks until the body has been received
+         * unless the response comes from an asynchronous exchange.
+         */
+        static Exchange of(HttpResponse<Supplier<CortexApiResult<JsonStructure>>> response) {
+            Supplier<CortexApiResult<JsonStructure>> body = response.body();
+            CortexApiResult<JsonStructure> result = body.get();
+            long bytes = (body instanceof JsonBodyHandler.Body) ? ((JsonBodyHandler.Body) body).wireBytes() : 0;
+            return new Exchange(result, response.statusCode(), response.headers(), bytes);
+        }
+    }
+
+    private CircuitBreaker breaker(CredentialTuple ct, String host) {
+        CircuitBreakerPolicy policy = circuitBreakerPolicy;
+        if (policy == null)
             return null;
+        String dlid = (ct != null) ? ct.dlid : null;
+        String key = (dlid != null) ? host + "/" + dlid : host;
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null)
+            breaker = breakers.computeIfAbsent(key,
+                    k -> new CircuitBreaker(host, dlid, policy, this::fireCircuitEvent));
+        return breaker;
+    }
+
+    private void fireCircuitEvent(CircuitBreakerEvent event) {
+        for (Consumer<CircuitBreakerEvent> listener : circuitListeners)
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                logger.info("Circuit breaker listener failed due to: " + e.getMessage());
+            }
+    }
+
+    private static CircuitBreakerOpenException circuitOpen(CircuitBreaker breaker) {
+        return new CircuitBreakerOpenException(String.format("circuit breaker for %s (data lake %s) is open",
+                breaker.entryPoint, breaker.dataLake));
+    }
+
+    /**
+     * Whether an attempt timed out because of the caller deadline (its timeout
+     * was shortened to fit the deadline or the deadline has expired) rather than
+     * because the server was slow. Such timeouts say nothing about the health of
+     * the data lake.
+     */
+    private boolean deadlineTimeout(HttpRequest request, Deadline deadline, Throwable error) {
+        if (deadline == null || !(error instanceof HttpTimeoutException))
+            return false;
+        if (deadline.expired())
+            return true;
+        Duration requestTimeout = request.timeout().orElse(null);
+        return requestTimeout != null && (timeout == null || requestTimeout.compareTo(timeout) < 0);
+    }
+
+    /**
+     * Reports the outcome of an attempt to its circuit breaker. Timeouts caused
+     * by the caller deadline are ignored.
+     */
+    private static void report(CircuitBreaker breaker, Exchange exchange, Throwable error, boolean deadlineTimeout) {
+        if (breaker == null)
+            return;
+        if (error instanceof CircuitBreakerOpenException)
+            return;
+        if (deadlineTimeout)
+            breaker.onIgnored();
+        else if (error instanceof IOException || error instanceof UncheckedIOException)
+            breaker.onFailure();
+        else if (error != null || exchange == null)
+            breaker.onIgnored();
+        else if (CircuitBreakerPolicy.failureStatus(exchange.statusCode))
+            breaker.onFailure();
+        else
+            breaker.onSuccess();
+    }
+
+    /**
+     * Adds an attempt to the request metrics and commits its flight recorder
+     * event. Cancelled and interrupted attempts are not added to the metrics.
+     */
+    private void record(HttpRequest request, boolean held, CredentialTuple ct, long start,
+            JfrEvents.HttpOperation event, Exchange exchange, Throwable error) {
+        int statusCode;
+        if (exchange != null)
+            statusCode = exchange.statusCode;
+        else if (error instanceof IOException || error instanceof UncheckedIOException)
+            statusCode = -1;
+        else
+            statusCode = 0;
+        String dataLake = (ct == null) ? null : ct.dlid;
+        String path = request.uri().getPath();
+        String operation = RequestMetrics.operation(request.method(), path, held);
+        long bytes = (exchange == null) ? 0 : exchange.bytes;
+        if (statusCode != 0)
+            metrics.record(operation, dataLake, statusCode, System.nanoTime() - start, bytes);
+        if (event != null && event.shouldCommit()) {
+            event.operation = operation;
+            event.method = request.method();
+            event.path = path;
+            event.jobId = JfrEvents.jobId(path);
+            event.dataLake = dataLake;
+            event.statusCode = statusCode;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private Exchange exchange(HttpRequest request, CredentialTuple ct, Deadline deadline)
+            throws InterruptedException, IOException {
+        String host = request.uri().getHost();
+        CircuitBreaker breaker = breaker(ct, host);
+        if (breaker != null && !breaker.tryAcquire())
+            throw circuitOpen(breaker);
+        boolean held = heldByServer(request);
+        long start = System.nanoTime();
+        JfrEvents.HttpOperation event = JfrEvents.beginHttpOperation();
+        Exchange exchange = null;
+        Throwable error = null;
+        try {
+            exchange = send(request, held, ct, host, deadline);
+            return exchange;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            report(breaker, exchange, error, deadlineTimeout(request, deadline, error));
+            record(request, held, ct, start, event, exchange, error);
         }
-        logger.finer("HTTP2 response body: " + responseBody);
+    }
+
+    private Exchange send(HttpRequest request, boolean held, CredentialTuple ct, String host, Deadline deadline)
+            throws InterruptedException, IOException {
+        ConcurrencyLimiter limiter = limiter(ct, host);
+        ConcurrencyLimiter.Permit permit = held ? limiter.unlimited() : limiter.acquireBlocking();
+        int connection = pool.acquire(host);
         try {
-            JsonStructure jsobj = Json.createReader(new StringReader(responseBody)).read();
-            return new CortexApiResult<JsonStructure>(jsobj, response.statusCode());
-        } catch (JsonParsingException e) {
-            logger.info("CORTEX response is not a valid JSON object: " + responseBody);
-            return new CortexApiResult<JsonStructure>(null, response.statusCode());
+            HttpResponse<Supplier<CortexApiResult<JsonStructure>>> response = pool.client(connection).send(request,
+                    jsonBodyHandler);
+            permit.responded(response.statusCode(), held);
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("HTTP2 response status code: " + response.statusCode());
+            return Exchange.of(response);
+        } catch (HttpTimeoutException e) {
+            if (!deadlineTimeout(request, deadline, e))
+                permit.timedOut();
+            throw e;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.release(host, connection);
+            permit.release();
+        }
+    }
+
+    /**
+     * Asynchronous single attempt. Cancelling the returned future removes the
+     * request from the concurrency limiter queue or aborts the HTTP exchange.
+     * A response that arrives after the cancellation (the JDK 11 HttpClient
+     * does not abort sent requests) or whose body is still being decoded gets
+     * its body stream closed, which resets the HTTP/2 stream.
+     */
+    private CompletableFuture<Exchange> exchangeAsync(HttpRequest request, CredentialTuple ct, Deadline deadline) {
+        Executor decoder = (parseExecutor == null) ? executor : parseExecutor;
+        String host = request.uri().getHost();
+        CircuitBreaker breaker = breaker(ct, host);
+        if (breaker != null && !breaker.tryAcquire())
+            return CompletableFuture.failedFuture(circuitOpen(breaker));
+        long start = System.nanoTime();
+        JfrEvents.HttpOperation event = JfrEvents.beginHttpOperation();
+        CompletableFuture<Exchange> exchange = new CompletableFuture<Exchange>();
+        boolean held = heldByServer(request);
+        ConcurrencyLimiter limiter = limiter(ct, host);
+        CompletableFuture<ConcurrencyLimiter.Permit> acquired = held
+                ? CompletableFuture.completedFuture(limiter.unlimited())
+                : limiter.acquire();
+        AtomicReference<CompletableFuture<?>> sent = new AtomicReference<CompletableFuture<?>>();
+        exchange.whenComplete((result, e) -> {
+            Throwable error = Tools.unwrap(e);
+            report(breaker, result, error, deadlineTimeout(request, deadline, error));
+            record(request, held, ct, start, event, result, error);
+            if (exchange.isCancelled()) {
+                acquired.cancel(false);
+                Tools.cancel(sent.get());
+            }
+        });
+        acquired.thenAccept(permit -> {
+            if (exchange.isDone()) {
+                permit.release();
+                return;
+            }
+            int connection = pool.acquire(host);
+            CompletableFuture<HttpResponse<Supplier<CortexApiResult<JsonStructure>>>> response = pool
+                    .client(connection).sendAsync(request, jsonBodyHandler.cancellable(exchange));
+            sent.set(response);
+            if (exchange.isCancelled())
+                response.cancel(true);
+            response.thenApply(r -> {
+                permit.responded(r.statusCode(), held);
+                if (logger.isLoggable(Level.FINER))
+                    logger.finer("HTTP2 response status code: " + r.statusCode());
+                return r;
+            }).thenApplyAsync(Exchange::of, decoder).whenComplete((result, e) -> {
+                pool.release(host, connection);
+                Throwable error = Tools.unwrap(e);
+                if (error instanceof HttpTimeoutException && !deadlineTimeout(request, deadline, error))
+                    permit.timedOut();
+                permit.release();
+                if (error == null)
+                    exchange.complete(result);
+                else
+                    exchange.completeExceptionally(error);
+            });
+        });
+        return exchange;
+    }
+
+    /**
+     * Decides whether a failed attempt must be retried.
+     * 
+     * @return milliseconds to wait before the next attempt or -1 to give up
+     */
+    private long retryDelay(RetryPolicy policy, HttpRequest request, int attempt, Exchange exchange,
+            Throwable error, Deadline deadline) {
+        if (policy == null)
+            return -1;
+        if (attempt == 1)
+            retryBudget.deposit(policy.budgetRatio);
+        long delay;
+        if (error instanceof CircuitBreakerOpenException)
+            delay = -1;
+        else if (error != null)
+            delay = (attempt < policy.maxAttempts
+                    && (error instanceof IOException || error instanceof UncheckedIOException))
+                            ? policy.backoff(attempt)
+                            : -1;
+        else
+            delay = policy.delay(attempt, exchange.statusCode, exchange.headers, System.currentTimeMillis());
+        if (delay < 0)
+            return -1;
+        if (deadline != null && delay >= deadline.remainingMillis()) {
+            if (logger.isLoggable(Level.FINE))
+                logger.fine("Deadline too close, not retrying " + request.method() + " " + request.uri());
+            return -1;
+        }
+        if (!retryBudget.tryWithdraw()) {
+            logger.info("Retry budget exhausted, not retrying " + request.method() + " " + request.uri());
+            return -1;
         }
+        if (logger.isLoggable(Level.FINE))
+            logger.fine(String.format("Retrying %s %s in %d ms (attempt %d failed with %s)", request.method(),
+                    request.uri(), delay, attempt, (error != null) ? error : exchange.statusCode));
+        return delay;
+    }
+
+    private RetryPolicy retryPolicy(HttpRequest request) {
+        String method = request.method();
+        return (method.equals("GET") || method.equals("DELETE")) ? retryPolicy : null;
+    }
+
+    /**
+     * Identity of a request for coalescing purposes. The negotiated headers (for
+     * instance Accept-Encoding) are part of it, the authorization one is implied
+     * by the credential.
+     * 
+     * @return the key or null if the request must not be coalesced
+     */
+    private String flightKey(HttpRequest request, CredentialTuple ct) {
+        if (!coalescing || !request.method().equals("GET"))
+            return null;
+        StringBuilder key = new StringBuilder((ct == null) ? "*" : "dl:" + ct.dlid).append(' ')
+                .append(request.uri());
+        new TreeMap<String, List<String>>(request.headers().map()).forEach((name, values) -> {
+            if (!name.equalsIgnoreCase("authorization"))
+                key.append('\n').append(name.toLowerCase()).append(": ").append(String.join(", ", values));
+        });
+        return key.toString();
+    }
+
+    private CortexApiResult<JsonStructure> op(HttpRequest request, CredentialTuple ct, Deadline deadline)
+            throws InterruptedException, IOException {
+        if (deadline != null && deadline.expired())
+            throw deadline.exceeded();
+        String key = flightKey(request, ct);
+        if (key == null)
+            return retrying(request, ct, deadline);
+        return singleFlight.run(key, deadline, () -> retrying(request, ct, deadline));
+    }
+
+    private CompletableFuture<CortexApiResult<JsonStructure>> opAsync(HttpRequest request, CredentialTuple ct,
+            Deadline deadline) {
+        if (deadline != null && deadline.expired())
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        String key = flightKey(request, ct);
+        if (key == null)
+            return retryingAsync(request, ct, deadline);
+        return singleFlight.submit(key, deadline, () -> retryingAsync(request, ct, deadline));
+    }
+
+    /**
+     * Copy of a request with a new timeout, used to give a retry the time left
+     * before the deadline instead of the one of the first attempt.
+     */
+    private static HttpRequest withTimeout(HttpRequest request, Duration timeout) {
+        Builder builder = HttpRequest.newBuilder(request.uri())
+                .method(request.method(), request.bodyPublisher().orElse(BodyPublishers.noBody())).timeout(timeout);
+        request.headers().map().forEach((name, values) -> values.forEach(value -> builder.header(name, value)));
+        return builder.build();
+    }
+
+    private HttpRequest retryRequest(HttpRequest request, Deadline deadline) {
+        return (deadline == null) ? request : withTimeout(request, deadline.timeout(timeout));
     }
 
-    private CompletableFuture<CortexApiResult<JsonStructure>> opAsync(HttpRequest request) {
-        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
-            logger.finer("HTTP2 response status code: " + response.statusCode());
-            String responseBody = response.body();
-            if (responseBody.equals("null")) {
-                logger.finer("HTTP2 response body is null");
-                return null;
+    private CortexApiResult<JsonStructure> retrying(HttpRequest request, CredentialTuple ct, Deadline deadline)
+            throws InterruptedException, IOException {
+        RetryPolicy policy = retryPolicy(request);
+        HttpRequest current = request;
+        for (int attempt = 1;; attempt++) {
+            Exchange exchange = null;
+            IOException error = null;
+            try {
+                exchange = exchange(current, ct, deadline);
+            } catch (IOException e) {
+                error = e;
             }
-            logger.finer("HTTP2 response body: " + responseBody);
-            JsonStructure jsobj = Json.createReader(new StringReader(responseBody)).read();
-            return new CortexApiResult<JsonStructure>(jsobj, response.statusCode());
+            long delay = retryDelay(policy, request, attempt, exchange, error, deadline);
+            if (delay < 0) {
+                if (error != null)
+                    throw error;
+                return exchange.result;
+            }
+            Thread.sleep(delay);
+            current = retryRequest(request, deadline);
+        }
+    }
+
+    private CompletableFuture<CortexApiResult<JsonStructure>> retryingAsync(HttpRequest request,
+            CredentialTuple ct, Deadline deadline) {
+        var result = new CompletableFuture<CortexApiResult<JsonStructure>>();
+        AtomicReference<CompletableFuture<Exchange>> attempt = new AtomicReference<CompletableFuture<Exchange>>();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled())
+                Tools.cancel(attempt.get());
         });
+        attemptAsync(request, request, ct, deadline, retryPolicy(request), 1, result, attempt);
+        return result;
+    }
+
+    private void attemptAsync(HttpRequest request, HttpRequest attemptRequest, CredentialTuple ct, Deadline deadline,
+            RetryPolicy policy, int attempt, CompletableFuture<CortexApiResult<JsonStructure>> result,
+            AtomicReference<CompletableFuture<Exchange>> current) {
+        if (result.isDone())
+            return;
+        CompletableFuture<Exchange> exchange = exchangeAsync(attemptRequest, ct, deadline);
+        current.set(exchange);
+        if (result.isCancelled())
+            exchange.cancel(true);
+        exchange.whenComplete((response, e) -> {
+            if (result.isDone())
+                return;
+            Throwable error = Tools.unwrap(e);
+            long delay = retryDelay(policy, request, attempt, response, error, deadline);
+            if (delay >= 0)
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                        .execute(() -> attemptAsync(request, retryRequest(request, deadline), ct, deadline, policy,
+                                attempt + 1, result, current));
+            else if (error == null)
+                result.complete(response.result);
+            else
+                result.completeExceptionally(error);
+        });
+    }
+
+    private CompletableFuture<CortexApiResult<JsonStructure>> hedgedAsync(HttpRequest request, CredentialTuple ct,
+            Deadline deadline) {
+        RequestHedger current = hedger;
+        if (current == null)
+            return opAsync(request, ct, deadline);
+        if (deadline != null && deadline.expired())
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        String key = flightKey(request, ct);
+        if (key == null)
+            return current.hedge(() -> retryingAsync(request, ct, deadline), executor);
+        return singleFlight.submit(key, deadline,
+                () -> current.hedge(() -> retryingAsync(request, ct, deadline), executor));
+    }
+
+    /**
+     * GET request that is hedged if a {@link HedgePolicy} is set.
+     */
+    @Override
+    public CortexApiResult<JsonStructure> getHedged(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        if (hedger == null)
+            return get(path, ct, deadline, headers);
+        CompletableFuture<CortexApiResult<JsonStructure>> response = getHedgedAsync(path, ct, deadline, headers);
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> getHedgedAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) throws Http2FetchException, URISyntaxException {
+        Builder reqBuilder = getRequest(path, ct, deadline);
+        if (headers != null)
+            setHeaders(reqBuilder, headers);
+        HttpRequest request = reqBuilder.GET().build();
+        logRequest(request);
+        return hedgedAsync(request, ct, deadline);
     }
 
     CortexApiResult<JsonStructure> get(String path, CredentialTuple ct)
             throws Http2FetchException, URISyntaxException, InterruptedException, IOException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.GET().build();
-        Http2Fetch.logger.fine(String.format("GET op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, null);
     }
 
-    CortexApiResult<JsonStructure> get(String path, CredentialTuple ct, String... headers)
+    @Override
+    public CortexApiResult<JsonStructure> get(String path, CredentialTuple ct, Deadline deadline, String... headers)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.GET().build();
-        Http2Fetch.logger.fine(String.format("GET op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, deadline);
     }
 
     CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct)
             throws Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.GET().build();
-        Http2Fetch.logger.fine(String.format("GET op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, null);
     }
 
-    CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct, String... headers)
-            throws Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) throws Http2FetchException, URISyntaxException {
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.GET().build();
-        Http2Fetch.logger.fine(String.format("GET op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, deadline);
     }
 
     CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.DELETE().build();
-        Http2Fetch.logger.fine(String.format("DELETE op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, null);
     }
 
-    CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct, String... headers)
-            throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+    @Override
+    public CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.DELETE().build();
-        Http2Fetch.logger.fine(String.format("DELETE op to %s", request.uri().toString()));
-        return op(reqBuilder.build());
+        logRequest(request);
+        return op(request, ct, deadline);
     }
 
     CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct)
             throws Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.DELETE().build();
-        Http2Fetch.logger.fine(String.format("DELETE op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, null);
     }
 
-    CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct, String... headers)
-            throws Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) throws Http2FetchException, URISyntaxException {
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.DELETE().build();
-        Http2Fetch.logger.fine(String.format("DELETE op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, deadline);
     }
 
     CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, BodyPublisher publisher)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.POST(publisher).build();
-        Http2Fetch.logger.fine(String.format("POST op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, null);
     }
 
-    CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, BodyPublisher publisher, String... headers)
+    @Override
+    public CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, Deadline deadline,
+            BodyPublisher publisher, String... headers)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.POST(publisher).build();
-        Http2Fetch.logger.fine(String.format("POST op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, deadline);
     }
 
     CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
             BodyPublisher publisher) throws Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.POST(publisher).build();
-        Http2Fetch.logger.fine(String.format("POST op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, null);
     }
 
-    CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
-            BodyPublisher publisher, String... headers) throws Http2FetchException, URISyntaxException {
-        Builder reqBuilder = getRequest(path, ct);
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
+            Deadline deadline, BodyPublisher publisher, String... headers)
+            throws Http2FetchException, URISyntaxException {
+        Builder reqBuilder = getRequest(path, ct, deadline);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.POST(publisher).build();
-        Http2Fetch.logger.fine(String.format("POST op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, deadline);
     }
 
     CortexApiResult<JsonStructure> put(String path, CredentialTuple ct, BodyPublisher publisher)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.PUT(publisher).build();
-        Http2Fetch.logger.fine(String.format("PUT op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, null);
     }
 
     CortexApiResult<JsonStructure> put(String path, CredentialTuple ct, BodyPublisher publisher, String... headers)
             throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.PUT(publisher).build();
-        Http2Fetch.logger.fine(String.format("PUT op to %s", request.uri().toString()));
-        return op(request);
+        logRequest(request);
+        return op(request, ct, null);
     }
 
     CompletableFuture<CortexApiResult<JsonStructure>> putAsync(String path, CredentialTuple ct, BodyPublisher publisher)
             throws Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         HttpRequest request = reqBuilder.PUT(publisher).build();
-        Http2Fetch.logger.fine(String.format("PUT op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, null);
     }
 
     CompletableFuture<CortexApiResult<JsonStructure>> putAsync(String path, CredentialTuple ct, BodyPublisher publisher,
             String... headers) throws Http2FetchException, URISyntaxException {
         Builder reqBuilder = getRequest(path, ct);
         if (headers != null)
-            reqBuilder.headers(headers);
+            setHeaders(reqBuilder, headers);
         HttpRequest request = reqBuilder.PUT(publisher).build();
-        Http2Fetch.logger.fine(String.format("PUT op to %s", request.uri().toString()));
-        return opAsync(request);
+        logRequest(request);
+        return opAsync(request, ct, null);
     }
 }
\ No newline at end of file
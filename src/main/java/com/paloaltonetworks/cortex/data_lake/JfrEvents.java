@@ -0,0 +1,243 @@
+/**
+ * JfrEvents
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the query lifecycle.
+ * 
+ * Events are only created and begun (see the {@code begin} methods) while a
+ * recording enables them, otherwise the callers get null and allocate nothing.
+ * Their fields are only filled in when {@code shouldCommit()} is true. All of
+ * them are timed and keyed by jobId and data lake so a latency spike in a
+ * recording can be tied to a query.
+ */
+final class JfrEvents {
+    private static final String CATEGORY = "Cortex Data Lake";
+    private static final EventType HTTP_OPERATION_TYPE = type(HttpOperation.class);
+    private static final EventType RESPONSE_PARSE_TYPE = type(ResponseParse.class);
+    private static final EventType JOB_SUBMIT_TYPE = type(JobSubmit.class);
+    private static final EventType JOB_POLL_TYPE = type(JobPoll.class);
+    private static final EventType PAGE_FETCH_TYPE = type(PageFetch.class);
+    private static final EventType SPLIT_TYPE = type(Split.class);
+    private static final EventType JOB_DELETE_TYPE = type(JobDelete.class);
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Registers an event class.
+     * 
+     * @return its type or null if the JVM has no flight recorder
+     */
+    private static EventType type(Class<? extends Event> eventClass) {
+        try {
+            return EventType.getEventType(eventClass);
+        } catch (InternalError | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates and begins an event if a recording enables it.
+     * 
+     * @return the begun event or null if it is disabled
+     */
+    private static <E extends Event> E begin(EventType type, Supplier<E> factory) {
+        if (type == null || !type.isEnabled())
+            return null;
+        E event = factory.get();
+        event.begin();
+        return event;
+    }
+
+    static HttpOperation beginHttpOperation() {
+        return begin(HTTP_OPERATION_TYPE, HttpOperation::new);
+    }
+
+    static ResponseParse beginResponseParse() {
+        return begin(RESPONSE_PARSE_TYPE, ResponseParse::new);
+    }
+
+    static JobSubmit beginJobSubmit() {
+        return begin(JOB_SUBMIT_TYPE, JobSubmit::new);
+    }
+
+    static JobPoll beginJobPoll() {
+        return begin(JOB_POLL_TYPE, JobPoll::new);
+    }
+
+    static PageFetch beginPageFetch() {
+        return begin(PAGE_FETCH_TYPE, PageFetch::new);
+    }
+
+    static Split beginSplit() {
+        return begin(SPLIT_TYPE, Split::new);
+    }
+
+    static JobDelete beginJobDelete() {
+        return begin(JOB_DELETE_TYPE, JobDelete::new);
+    }
+
+    /**
+     * Extracts the job identifier from a Query Service request path.
+     * 
+     * @return the jobId or null if the path does not address a job
+     */
+    static String jobId(String path) {
+        int start = path.indexOf("/jobs/");
+        if (start >= 0)
+            start += 6;
+        else if ((start = path.indexOf("/jobResults/")) >= 0)
+            start += 12;
+        else
+            return null;
+        int end = path.indexOf('?', start);
+        return path.substring(start, (end < 0) ? path.length() : end);
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.HttpOperation")
+    @Label("HTTP Operation")
+    @Description("Single attempt of a Cortex API request, from the concurrency limiter queue to the decoded response")
+    @Category({ CATEGORY, "HTTP" })
+    @StackTrace(false)
+    static class HttpOperation extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Method")
+        String method;
+        @Label("Path")
+        String path;
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Status Code")
+        @Description("Response status code, -1 for I/O errors and 0 for cancelled attempts")
+        int statusCode;
+        @Label("Response Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.ResponseParse")
+    @Label("Response Parse")
+    @Description("Decoding (inflating) and JSON parsing of a response body")
+    @Category({ CATEGORY, "HTTP" })
+    @StackTrace(false)
+    static class ResponseParse extends Event {
+        @Label("Status Code")
+        int statusCode;
+        @Label("Content Encoding")
+        String encoding;
+        @Label("Wire Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.JobSubmit")
+    @Label("Job Submit")
+    @Description("Query job creation request")
+    @Category({ CATEGORY, "Query" })
+    static class JobSubmit extends Event {
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.JobPoll")
+    @Label("Job Poll")
+    @Description("Job status check while waiting for a query job to complete")
+    @Category({ CATEGORY, "Query" })
+    @StackTrace(false)
+    static class JobPoll extends Event {
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Attempt")
+        int attempt;
+        @Label("State")
+        String state;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.PageFetch")
+    @Label("Page Fetch")
+    @Description("Retrieval and parsing of a page of query results")
+    @Category({ CATEGORY, "Query" })
+    @StackTrace(false)
+    static class PageFetch extends Event {
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Page Number")
+        @Description("Zero based page number, -1 when the page is addressed by cursor")
+        int pageNumber;
+        @Label("Rows")
+        int rows;
+        @Label("Page Bytes")
+        @Description("Decoded size of the response body the page came in")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.Split")
+    @Label("Spliterator Split")
+    @Description("trySplit() decision of a query results spliterator")
+    @Category({ CATEGORY, "Query" })
+    @StackTrace(false)
+    static class Split extends Event {
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Current Page")
+        int currentPage;
+        @Label("End Page")
+        int endPage;
+        @Label("Split Page")
+        @Description("First page handed to the new spliterator, -1 if no split happened")
+        int splitPage;
+    }
+
+    @Name("com.paloaltonetworks.cortex.data_lake.JobDelete")
+    @Label("Job Delete")
+    @Description("Query job deletion request")
+    @Category({ CATEGORY, "Query" })
+    static class JobDelete extends Event {
+        @Label("Job Id")
+        String jobId;
+        @Label("Data Lake")
+        String dataLake;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+}
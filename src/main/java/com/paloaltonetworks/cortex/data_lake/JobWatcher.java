@@ -0,0 +1,462 @@
+/**
+ * JobWatcher
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.paloaltonetworks.cortex.data_lake.QueryJobDetail.JobState;
+
+/**
+ * Watches the pending jobs of a {@link QueryService} until they reach a
+ * terminal state.
+ * 
+ * Jobs waiting for their next status check sit in a hashed timer wheel of
+ * {@link #SLOTS} slots of {@link #TICK} milliseconds each, advanced by the
+ * shared {@link QueryService#poller()} only while there are jobs to watch.
+ * Status checks are issued asynchronously and the delay to the next one is
+ * taken from the {@link PollingStrategy} of the Query Service object, so any
+ * number of pending jobs costs no thread at all.
+ * 
+ * Jobs watched on behalf of a tenant are checked in batches: all the jobs of a
+ * tenant (and data lake) share a single wheel entry that lists the jobs of the
+ * tenant created since the oldest one of the batch with one {@code getJobsList}
+ * call. The detail of a job is only fetched once the list shows it left the
+ * PENDING and RUNNING states. A job missing from the list is checked on its own
+ * to learn its submit time and then goes back to the batch. Jobs still missing
+ * from a list that covers their submit time fall back to individual status
+ * checks. When the list request fails, each job of the batch is checked on its
+ * own, so only the failure of its own status check fails a watch.
+ * 
+ * A watcher is shared by a Query Service object and all its deadline bound
+ * copies (see {@link QueryService#withDeadline(Deadline)}): each watch carries
+ * its own deadline.
+ */
+final class JobWatcher {
+    /**
+     * Timer wheel resolution (milliseconds)
+     */
+    static final long TICK = 50;
+    /**
+     * Timer wheel size: longer delays take more than one revolution
+     */
+    static final int SLOTS = 512;
+    /**
+     * Age (milliseconds) a job is assumed to have at most when it starts being
+     * watched, until its submit time is known
+     */
+    static final long SUBMIT_MARGIN = 5 * 60 * 1000;
+    /**
+     * Jobs list room for jobs of the tenant that are not being watched
+     */
+    static final int LIST_HEADROOM = 100;
+    private static final Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private final QueryService qs;
+    // heads of the doubly linked lists of entries due in each slot
+    private final Entry[] wheel = new Entry[SLOTS];
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private long now = 0;
+    private int pending = 0;
+    private ScheduledFuture<?> ticker = null;
+
+    /**
+     * Timer wheel entry.
+     */
+    private abstract static class Entry {
+        // tick the entry is due (-1 while not in the wheel)
+        long due = -1;
+        Entry prev = null;
+        Entry next = null;
+    }
+
+    private static final class Watch extends Entry {
+        final String jobId;
+        final String tenantId;
+        final CredentialTuple cred;
+        final Deadline deadline;
+        final int maxChecks;
+        final long minDelay;
+        final CompletableFuture<QueryJobDetail> done = new CompletableFuture<QueryJobDetail>();
+        volatile Future<?> check = null;
+        final long watchedAt = System.currentTimeMillis();
+        int checks = 0;
+        // batch checking the job (null when checked on its own)
+        Batch batch = null;
+        // added to the batch since its last list, to be listed after joinDelay
+        boolean joined = false;
+        long joinDelay = 0;
+        // submit time (-1 until known)
+        volatile long submitTime = -1;
+        // missing from a jobs list that covered its submit time
+        volatile boolean unlisted = false;
+
+        Watch(String jobId, String tenantId, CredentialTuple cred, Deadline deadline, int maxChecks, long minDelay) {
+            this.jobId = jobId;
+            this.tenantId = tenantId;
+            this.cred = cred;
+            this.deadline = deadline;
+            this.maxChecks = maxChecks;
+            this.minDelay = minDelay;
+        }
+
+        /**
+         * Lower limit of the creation time of the job for a jobs list to include
+         * it.
+         */
+        long createdAfter() {
+            long submitted = submitTime;
+            return (submitted >= 0) ? submitted - 1 : watchedAt - SUBMIT_MARGIN;
+        }
+    }
+
+    private static final class Batch extends Entry {
+        final String key;
+        final String tenantId;
+        final CredentialTuple cred;
+        final Set<Watch> watches = new LinkedHashSet<Watch>();
+        boolean listing = false;
+
+        Batch(String key, String tenantId, CredentialTuple cred) {
+            this.key = key;
+            this.tenantId = tenantId;
+            this.cred = cred;
+        }
+    }
+
+    JobWatcher(QueryService qs) {
+        this.qs = qs;
+    }
+
+    /**
+     * Starts watching a job.
+     * 
+     * @param jobId     job to watch
+     * @param tenantId  tenant whose jobs list is used to check the job (null to
+     *                  check its status on its own)
+     * @param cred      credential tuple (null for the default one)
+     * @param deadline  deadline of the status checks (null for none)
+     * @param maxChecks status checks after which the watch fails with a
+     *                  {@link QueryServiceClientException}
+     * @param minDelay  shortest delay (milliseconds) between two checks
+     * @return future completed with the detail of the job once it is no longer
+     *         pending or running. Cancelling it stops the watch (but does not
+     *         cancel the job).
+     */
+    CompletableFuture<QueryJobDetail> watch(String jobId, String tenantId, CredentialTuple cred, Deadline deadline,
+            int maxChecks, long minDelay) {
+        Watch watch = new Watch(jobId, tenantId, cred, deadline, maxChecks, minDelay);
+        watch.done.whenComplete((jobDetail, e) -> {
+            if (watch.done.isCancelled()) {
+                release(watch);
+                Tools.cancel(watch.check);
+            }
+        });
+        if (tenantId == null)
+            check(watch); // checked right away
+        else
+            batch(watch, 0);
+        return watch.done;
+    }
+
+    /**
+     * Adds a watch to the batch of its tenant.
+     * 
+     * @param delay delay to the next list if the batch is idle
+     */
+    private void batch(Watch watch, long delay) {
+        Batch idle = null;
+        synchronized (this) {
+            if (watch.done.isDone())
+                return;
+            String key = watch.tenantId + "@" + qs.dataLake(watch.cred);
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(k, watch.tenantId, watch.cred));
+            batch.watches.add(watch);
+            watch.batch = batch;
+            watch.joined = true;
+            watch.joinDelay = delay;
+            if (!batch.listing && batch.due < 0)
+                idle = batch;
+        }
+        if (idle == null)
+            return; // checked with the next list of the tenant
+        if (delay == 0)
+            list(idle);
+        else
+            schedule(idle, delay);
+    }
+
+    /**
+     * @return number of timer wheel entries (jobs or tenants) waiting for their
+     *         next check
+     */
+    synchronized int pending() {
+        return pending;
+    }
+
+    private void check(Watch watch) {
+        if (watch.done.isDone())
+            return;
+        int attempt = ++watch.checks;
+        JfrEvents.JobPoll event = JfrEvents.beginJobPoll();
+        CompletableFuture<QueryJobDetail> status;
+        try {
+            status = qs.getJobStatusAsync(watch.jobId, watch.cred, watch.deadline);
+        } catch (Exception e) {
+            watch.done.completeExceptionally(e);
+            return;
+        }
+        watch.check = status;
+        if (watch.done.isCancelled())
+            status.cancel(true);
+        status.whenComplete((jobDetail, e) -> {
+            polled(event, watch, attempt, jobDetail);
+            if (e != null) {
+                watch.done.completeExceptionally(Tools.unwrap(e));
+                return;
+            }
+            if (settled(watch, attempt, jobDetail))
+                return;
+            long delay = capped(watch, Math.max(watch.minDelay, qs.pollingStrategy().delay(attempt, jobDetail)));
+            if (watch.tenantId != null && !watch.unlisted) {
+                // missing from the list: back to the batch now that the list can cover it
+                watch.submitTime = jobDetail.submitTime;
+                batch(watch, delay);
+            } else {
+                schedule(watch, delay);
+            }
+        });
+    }
+
+    /**
+     * Completes a watch whose job is no longer pending or running or that ran
+     * out of checks.
+     * 
+     * @return true if the watch is complete
+     */
+    private boolean settled(Watch watch, int attempt, QueryJobDetail jobDetail) {
+        if (jobDetail.state != JobState.PENDING && jobDetail.state != JobState.RUNNING) {
+            watch.done.complete(jobDetail);
+            return true;
+        }
+        if (attempt < watch.maxChecks)
+            return false;
+        String msg = String.format("JobId %s still in status %s after %s attempts", watch.jobId, jobDetail.state,
+                attempt);
+        watch.done.completeExceptionally(new QueryServiceClientException(msg, watch.jobId, jobDetail.state, null));
+        return true;
+    }
+
+    private void polled(JfrEvents.JobPoll event, Watch watch, int attempt, QueryJobDetail jobDetail) {
+        if (event != null && event.shouldCommit()) {
+            event.jobId = watch.jobId;
+            event.dataLake = qs.dataLake(watch.cred);
+            event.attempt = attempt;
+            event.state = (jobDetail == null) ? null : jobDetail.state.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks all the jobs of a batch with a single jobs list request.
+     */
+    private void list(Batch batch) {
+        List<Watch> watches;
+        synchronized (this) {
+            if (batch.watches.isEmpty()) {
+                batches.remove(batch.key);
+                return;
+            }
+            batch.listing = true;
+            watches = new ArrayList<Watch>(batch.watches);
+            for (Watch watch : watches)
+                watch.joined = false;
+        }
+        long createdAfter = Long.MAX_VALUE;
+        for (Watch watch : watches)
+            createdAfter = Math.min(createdAfter, watch.createdAfter());
+        int maxJobs = watches.size() + LIST_HEADROOM;
+        CompletableFuture<List<QueryJobDetail>> jobs;
+        try {
+            jobs = qs.getJobsListAsync(batch.tenantId, createdAfter, maxJobs, null, batch.cred);
+        } catch (Exception e) {
+            jobs = CompletableFuture.failedFuture(e);
+        }
+        jobs.whenComplete((list, e) -> listed(batch, watches, list, maxJobs, Tools.unwrap(e)));
+    }
+
+    private void listed(Batch batch, List<Watch> watches, List<QueryJobDetail> list, int maxJobs, Throwable e) {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("listed tenantId " + batch.tenantId + " for " + watches.size() + " jobs");
+        if (e != null)
+            logger.info("Failed getJobsList() for tenantId " + batch.tenantId + ", checking its " + watches.size()
+                    + " jobs on their own due to: " + e.getMessage());
+        Map<String, QueryJobDetail> states = new HashMap<String, QueryJobDetail>();
+        if (list != null)
+            list.forEach(jobDetail -> states.put(jobDetail.jobId, jobDetail));
+        // a truncated list may leave out the oldest jobs of the batch
+        boolean complete = list != null && list.size() < maxJobs;
+        long delay = Long.MAX_VALUE;
+        for (Watch watch : watches) {
+            if (watch.done.isDone()) {
+                release(watch);
+                continue;
+            }
+            if (watch.deadline != null && watch.deadline.expired()) {
+                release(watch);
+                watch.done.completeExceptionally(watch.deadline.exceeded());
+                continue;
+            }
+            if (e != null) {
+                // the job only fails on an error of its own status check
+                release(watch);
+                check(watch);
+                continue;
+            }
+            QueryJobDetail jobDetail = states.get(watch.jobId);
+            if (jobDetail == null) {
+                // checked on its own, and for good if the list should have included it
+                if (complete && watch.submitTime >= 0)
+                    watch.unlisted = true;
+                release(watch);
+                check(watch);
+            } else if (jobDetail.state != JobState.PENDING && jobDetail.state != JobState.RUNNING) {
+                release(watch);
+                watch.checks--; // the detail is fetched with a regular check
+                check(watch);
+            } else if (settled(watch, ++watch.checks, jobDetail)) {
+                release(watch);
+            } else {
+                watch.submitTime = jobDetail.submitTime;
+                delay = Math.min(delay,
+                        capped(watch, Math.max(watch.minDelay, qs.pollingStrategy().delay(watch.checks, jobDetail))));
+            }
+        }
+        Batch next = null;
+        synchronized (this) {
+            batch.listing = false;
+            if (batch.watches.isEmpty()) {
+                batches.remove(batch.key);
+            } else {
+                // watches added while listing are due after their join delay
+                for (Watch watch : batch.watches)
+                    if (watch.joined)
+                        delay = Math.min(delay, capped(watch, Math.max(watch.minDelay, watch.joinDelay)));
+                next = batch;
+            }
+        }
+        if (next != null)
+            schedule(next, delay);
+    }
+
+    /**
+     * Stops checking a job (on its own or in a batch).
+     */
+    private void release(Watch watch) {
+        synchronized (this) {
+            Batch batch = watch.batch;
+            if (batch == null) {
+                unlink(watch);
+                return;
+            }
+            watch.batch = null;
+            batch.watches.remove(watch);
+            if (batch.watches.isEmpty() && !batch.listing) {
+                unlink(batch);
+                batches.remove(batch.key);
+            }
+        }
+    }
+
+    /**
+     * Caps the delay to the next check of a job to the time left before its
+     * deadline.
+     */
+    private static long capped(Watch watch, long delay) {
+        return (watch.deadline == null) ? delay : Math.min(delay, watch.deadline.remainingMillis());
+    }
+
+    private void schedule(Entry entry, long delay) {
+        long ticks = Math.max(1, (delay + TICK - 1) / TICK);
+        synchronized (this) {
+            if (entry instanceof Watch && ((Watch) entry).done.isDone())
+                return;
+            entry.due = now + ticks;
+            int slot = (int) (entry.due % SLOTS);
+            entry.next = wheel[slot];
+            if (entry.next != null)
+                entry.next.prev = entry;
+            wheel[slot] = entry;
+            if (pending++ == 0)
+                ticker = QueryService.poller().scheduleAtFixedRate(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
+        }
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("next check in " + ticks * TICK + " ms");
+    }
+
+    private synchronized void unlink(Entry entry) {
+        if (entry.due < 0)
+            return;
+        if (entry.prev != null)
+            entry.prev.next = entry.next;
+        else
+            wheel[(int) (entry.due % SLOTS)] = entry.next;
+        if (entry.next != null)
+            entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.due = -1;
+        pending--;
+    }
+
+    private void tick() {
+        List<Entry> due = new ArrayList<Entry>();
+        synchronized (this) {
+            now++;
+            Entry entry = wheel[(int) (now % SLOTS)];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.due <= now) {
+                    unlink(entry);
+                    due.add(entry);
+                }
+                entry = next;
+            }
+            if (pending == 0 && ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+        }
+        for (Entry entry : due) {
+            if (entry instanceof Batch)
+                list((Batch) entry);
+            else
+                check((Watch) entry);
+        }
+    }
+}
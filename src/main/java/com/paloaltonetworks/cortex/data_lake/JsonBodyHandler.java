@@ -0,0 +1,406 @@
+/**
+ * JsonBodyHandler
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonStructure;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * HTTP response body handler that feeds the response bytes straight into a
+ * {@link JsonParser} as they arrive from the network, avoiding an intermediate
+ * String copy of the whole body.
+ * 
+ * The body is exposed as a {@link Supplier} because reading from the
+ * underlying stream blocks until the bytes arrive: the decoding must happen in
+ * the thread that calls {@code get()} and not in the HttpClient executor.
+ * Bodies of asynchronous exchanges (see {@link #cancellable(CompletableFuture)})
+ * are instead received in full before being handed over, so decoding them
+ * never waits on the network. The parser then reads the received buffers in
+ * place and releases each one once consumed: the body is never copied.
+ * 
+ * Bodies with a gzip or deflate {@code content-encoding} are inflated on the
+ * fly. The handler counts the body bytes received from the network and the
+ * bytes fed to the parser.
+ */
+class JsonBodyHandler implements BodyHandler<Supplier<CortexApiResult<JsonStructure>>> {
+    private static final Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private static final JsonParserFactory parserFactory = Json.createParserFactory(null);
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Stream wrapper that adds the number of bytes read to a counter when
+     * closed.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+        private long count = 0;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            counter.addAndGet(count);
+            count = 0;
+            super.close();
+        }
+    }
+
+    /**
+     * Deferred decoding of a response body that remembers how many bytes were
+     * received from the network.
+     */
+    final class Body implements Supplier<CortexApiResult<JsonStructure>> {
+        private final InputStream in;
+        private final String encoding;
+        private final int statusCode;
+        private final AtomicLong wire = new AtomicLong();
+
+        Body(InputStream in, String encoding, int statusCode) {
+            this.in = in;
+            this.encoding = encoding;
+            this.statusCode = statusCode;
+        }
+
+        @Override
+        public CortexApiResult<JsonStructure> get() {
+            JfrEvents.ResponseParse event = JfrEvents.beginResponseParse();
+            try {
+                return decode(new CountingInputStream(in, wire), encoding, statusCode);
+            } finally {
+                if (event != null && event.shouldCommit()) {
+                    event.statusCode = statusCode;
+                    event.encoding = encoding;
+                    event.bytes = wire.get();
+                    event.commit();
+                }
+            }
+        }
+
+        /**
+         * Body bytes received from the network (available once decoded).
+         */
+        long wireBytes() {
+            return wire.get();
+        }
+    }
+
+    /**
+     * Stream over the buffers of a received response body. Each buffer is
+     * released as soon as it has been read, so the body is never copied and
+     * the bytes already parsed can be reclaimed while the rest is decoded.
+     */
+    private static class BuffersInputStream extends InputStream {
+        private final Queue<ByteBuffer> buffers;
+
+        BuffersInputStream(Queue<ByteBuffer> buffers) {
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return the buffer being read or null at the end of the body
+         */
+        private ByteBuffer current() {
+            ByteBuffer buffer = buffers.peek();
+            while (buffer != null && !buffer.hasRemaining()) {
+                buffers.poll();
+                buffer = buffers.peek();
+            }
+            return buffer;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = current();
+            return (buffer == null) ? -1 : (buffer.get() & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0)
+                return 0;
+            int n = 0;
+            ByteBuffer buffer;
+            while (n < len && (buffer = current()) != null) {
+                int chunk = Math.min(len - n, buffer.remaining());
+                buffer.get(b, off + n, chunk);
+                n += chunk;
+            }
+            return (n == 0) ? -1 : n;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer buffer = current();
+            return (buffer == null) ? 0 : buffer.remaining();
+        }
+
+        @Override
+        public void close() {
+            buffers.clear();
+        }
+    }
+
+    /**
+     * Subscriber that collects the whole response body before handing it over.
+     * The received buffers are decoded in place, without being copied into a
+     * single array. The subscription is cancelled if the exchange is aborted
+     * while the body is still being received.
+     */
+    private final class Accumulator implements BodySubscriber<Supplier<CortexApiResult<JsonStructure>>> {
+        private final String encoding;
+        private final int statusCode;
+        private final Queue<ByteBuffer> received = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final CompletableFuture<Supplier<CortexApiResult<JsonStructure>>> body;
+        private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<Flow.Subscription>();
+        private volatile boolean aborted = false;
+
+        Accumulator(String encoding, int statusCode) {
+            this.encoding = encoding;
+            this.statusCode = statusCode;
+            body = new CompletableFuture<Supplier<CortexApiResult<JsonStructure>>>();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            if (!subscription.compareAndSet(null, s)) {
+                s.cancel();
+                return;
+            }
+            if (aborted)
+                s.cancel();
+            else
+                s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            received.addAll(items);
+            if (aborted)
+                received.clear();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            received.clear();
+            body.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (!body.complete(new Body(new BuffersInputStream(received), encoding, statusCode)))
+                received.clear();
+        }
+
+        @Override
+        public CompletionStage<Supplier<CortexApiResult<JsonStructure>>> getBody() {
+            return body;
+        }
+
+        /**
+         * Cancels the subscription, which resets the HTTP/2 stream instead of
+         * letting the remaining bytes be sent and buffered.
+         */
+        void abort() {
+            aborted = true;
+            Flow.Subscription s = subscription.get();
+            if (s != null)
+                s.cancel();
+            if (body.completeExceptionally(new IOException("response body aborted")))
+                received.clear();
+        }
+    }
+
+    @Override
+    public BodySubscriber<Supplier<CortexApiResult<JsonStructure>>> apply(ResponseInfo responseInfo) {
+        int statusCode = responseInfo.statusCode();
+        String encoding = responseInfo.headers().firstValue("content-encoding").orElse(null);
+        return BodySubscribers.mapping(BodySubscribers.ofInputStream(), in -> new Body(in, encoding, statusCode));
+    }
+
+    /**
+     * Handler for a single asynchronous exchange. The body is handed over once
+     * it has been fully received, so it can be decoded in any executor without
+     * blocking on network reads. The body stream is aborted as soon as the
+     * exchange is cancelled, whether that happens before the response headers
+     * arrive or while the body is being received.
+     * 
+     * @param exchange future of the exchange
+     * @return the handler
+     */
+    BodyHandler<Supplier<CortexApiResult<JsonStructure>>> cancellable(CompletableFuture<?> exchange) {
+        return responseInfo -> {
+            String encoding = responseInfo.headers().firstValue("content-encoding").orElse(null);
+            Accumulator accumulator = new Accumulator(encoding, responseInfo.statusCode());
+            exchange.whenComplete((r, e) -> {
+                if (exchange.isCancelled())
+                    accumulator.abort();
+            });
+            return accumulator;
+        };
+    }
+
+    /**
+     * Decodes a possibly compressed Cortex API response body and updates the
+     * transfer counters. The result carries the decoded body size.
+     * 
+     * @param in         response body stream (closed on return)
+     * @param encoding   value of the content-encoding header (null for none)
+     * @param statusCode HTTP response status code
+     * @return the decoded result or null if the response body is the JSON null
+     *         literal
+     * @throws UncheckedIOException if the stream fails while being read or the
+     *                              encoding is not supported
+     */
+    CortexApiResult<JsonStructure> decode(InputStream in, String encoding, int statusCode)
+            throws UncheckedIOException {
+        responses.incrementAndGet();
+        InputStream wire = new CountingInputStream(in, wireBytes);
+        AtomicLong decoded = new AtomicLong();
+        try {
+            if (encoding == null || encoding.equalsIgnoreCase("identity"))
+                return sized(decode(new CountingInputStream(wire, decoded), statusCode), decoded.get());
+            compressedResponses.incrementAndGet();
+            try {
+                return sized(decode(new CountingInputStream(inflate(wire, encoding), decoded), statusCode),
+                        decoded.get());
+            } catch (IOException e) {
+                try {
+                    wire.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            decodedBytes.addAndGet(decoded.get());
+        }
+    }
+
+    /**
+     * Attaches the decoded body size to a result.
+     */
+    private static CortexApiResult<JsonStructure> sized(CortexApiResult<JsonStructure> result, long bytes) {
+        if (result == null)
+            return null;
+        return new CortexApiResult<JsonStructure>(result.result, result.statusCode, bytes);
+    }
+
+    private static InputStream inflate(InputStream in, String encoding) throws IOException {
+        switch (encoding.trim().toLowerCase()) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                throw new IOException("unsupported content-encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Snapshot of the transfer counters.
+     * 
+     * @return current counters
+     */
+    TransferStats stats() {
+        return new TransferStats(responses.get(), compressedResponses.get(), wireBytes.get(), decodedBytes.get());
+    }
+
+    /**
+     * Decodes a Cortex API response body.
+     * 
+     * @param in         response body stream (closed on return)
+     * @param statusCode HTTP response status code
+     * @return the decoded result or null if the response body is the JSON null
+     *         literal
+     * @throws UncheckedIOException if the stream fails while being read
+     */
+    static CortexApiResult<JsonStructure> decode(InputStream in, int statusCode) throws UncheckedIOException {
+        try (JsonParser parser = parserFactory.createParser(in, StandardCharsets.UTF_8)) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                    return new CortexApiResult<JsonStructure>(parser.getObject(), statusCode);
+                case START_ARRAY:
+                    return new CortexApiResult<JsonStructure>(parser.getArray(), statusCode);
+                case VALUE_NULL:
+                    logger.finer("HTTP2 response body is null");
+                    return null;
+                default:
+                    logger.info("CORTEX response is not a valid JSON object");
+                    return new CortexApiResult<JsonStructure>(null, statusCode);
+            }
+        } catch (JsonParsingException e) {
+            logger.info("CORTEX response is not a valid JSON object: " + e.getMessage());
+            return new CortexApiResult<JsonStructure>(null, statusCode);
+        } catch (JsonException e) {
+            if (e.getCause() instanceof IOException)
+                throw new UncheckedIOException((IOException) e.getCause());
+            throw e;
+        }
+    }
+}
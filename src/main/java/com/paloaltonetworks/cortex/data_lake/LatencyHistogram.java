@@ -0,0 +1,82 @@
+/**
+ * LatencyHistogram
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear latency histogram with microsecond resolution.
+ * 
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets, so the
+ * value reported for a percentile is at most 12.5% above the actual one. The
+ * last bucket collects everything over 2^40 microseconds (about 12 days).
+ */
+class LatencyHistogram {
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    static int index(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Upper bound of a bucket.
+     * 
+     * @return nanoseconds
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return (index + 1) * 1000L;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB_BUCKETS + index % SUB_BUCKETS) * width + width) * 1000L;
+    }
+
+    void record(long nanos, long responseBytes) {
+        counts.incrementAndGet(index(nanos));
+        sum.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+        if (responseBytes > 0)
+            bytes.addAndGet(responseBytes);
+    }
+
+    EndpointMetrics snapshot(String operation, String dataLake, String statusClass) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            count += buckets[i];
+        }
+        return new EndpointMetrics(operation, dataLake, statusClass, count, bytes.get(), sum.get(), max.get(),
+                buckets);
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * LoopbackTransport
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonStructure;
+
+/**
+ * In-memory {@link Transport} that answers from canned or generated responses
+ * without any network I/O.
+ * 
+ * Response bodies are kept as bytes and decoded with the same JSON decoder used
+ * by {@link Http2Fetch}, so parsing and paging costs can be measured (or
+ * tested) in isolation.
+ * 
+ * Requests are matched against the registered routes in order: the first route
+ * whose method matches and whose path prefix starts the request path answers.
+ * Unmatched requests get a 404 response. {@link #queryService(int, IntFunction)}
+ * returns a transport simulating the Query Service job lifecycle. Requests
+ * bound to an expired {@link Deadline} fail without reaching the routes.
+ */
+public class LoopbackTransport implements Transport {
+    private static Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private final JsonBodyHandler decoder = new JsonBodyHandler();
+    private final Executor executor;
+
+    /**
+     * A request received by the loopback transport.
+     */
+    public static class Request {
+        /**
+         * HTTP method
+         */
+        public final String method;
+        /**
+         * Request path (without query string)
+         */
+        public final String path;
+        /**
+         * Decoded query string parameters
+         */
+        public final Map<String, String> params;
+        /**
+         * Data Lake identifier of the credential tuple (null for the default one)
+         */
+        public final String dataLake;
+        /**
+         * Request body (null if none)
+         */
+        public final String body;
+
+        Request(String method, String path, String dataLake, String body) {
+            this.method = method;
+            this.dataLake = dataLake;
+            this.body = body;
+            int query = path.indexOf('?');
+            if (query < 0) {
+                this.path = path;
+                this.params = Collections.emptyMap();
+                return;
+            }
+            this.path = path.substring(0, query);
+            Map<String, String> params = new HashMap<String, String>();
+            for (String pair : path.substring(query + 1).split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0)
+                    params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+            this.params = Collections.unmodifiableMap(params);
+        }
+    }
+
+    /**
+     * A response served by the loopback transport.
+     */
+    public static class Response {
+        final int statusCode;
+        final byte[] body;
+        final String encoding;
+
+        /**
+         * Creates a response.
+         * 
+         * @param statusCode HTTP status code
+         * @param body       response body bytes
+         * @param encoding   content-encoding of the body (null for none)
+         */
+        public Response(int statusCode, byte[] body, String encoding) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.encoding = encoding;
+        }
+
+        /**
+         * Creates a JSON response.
+         * 
+         * @param statusCode HTTP status code
+         * @param body       JSON text
+         * @return the response
+         */
+        public static Response json(int statusCode, String body) {
+            return new Response(statusCode, body.getBytes(StandardCharsets.UTF_8), null);
+        }
+
+        /**
+         * Creates a JSON response.
+         * 
+         * @param statusCode HTTP status code
+         * @param body       JSON value
+         * @return the response
+         */
+        public static Response json(int statusCode, JsonStructure body) {
+            return json(statusCode, body.toString());
+        }
+    }
+
+    private static class Route {
+        final String method;
+        final String prefix;
+        final Function<Request, Response> handler;
+
+        Route(String method, String prefix, Function<Request, Response> handler) {
+            this.method = method;
+            this.prefix = prefix;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Creates a loopback transport that completes the asynchronous requests in
+     * the provided executor.
+     * 
+     * @param executor executor for the asynchronous requests (null to use the
+     *                 common pool)
+     */
+    public LoopbackTransport(Executor executor) {
+        this.executor = (executor == null) ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Creates a loopback transport that completes the asynchronous requests in
+     * the common pool.
+     */
+    public LoopbackTransport() {
+        this(null);
+    }
+
+    /**
+     * Registers a generated response.
+     * 
+     * @param method  HTTP method (i.e. GET)
+     * @param prefix  path prefix (i.e. /query/v2/jobs/)
+     * @param handler response generator
+     * @return this transport
+     */
+    public LoopbackTransport route(String method, String prefix, Function<Request, Response> handler) {
+        routes.add(new Route(method, prefix, handler));
+        return this;
+    }
+
+    /**
+     * Registers a canned response.
+     * 
+     * @param method   HTTP method (i.e. GET)
+     * @param prefix   path prefix (i.e. /query/v2/jobs/)
+     * @param response response served to every matching request
+     * @return this transport
+     */
+    public LoopbackTransport route(String method, String prefix, Response response) {
+        return route(method, prefix, request -> response);
+    }
+
+    /**
+     * Response body decoding counters.
+     * 
+     * @return a counters snapshot
+     */
+    @Override
+    public TransferStats transferStats() {
+        return decoder.stats();
+    }
+
+    private CortexApiResult<JsonStructure> dispatch(String method, String path, CredentialTuple ct,
+            BodyPublisher publisher) {
+        Request request = new Request(method, path, (ct == null) ? null : ct.dlid,
+                (publisher == null) ? null : read(publisher));
+        if (logger.isLoggable(Level.FINE))
+            logger.fine(String.format("%s loopback op to %s", method, path));
+        Response response = null;
+        for (Route route : routes)
+            if (route.method.equals(method) && request.path.startsWith(route.prefix)) {
+                response = route.handler.apply(request);
+                break;
+            }
+        if (response == null)
+            response = error(404, "no loopback route for " + method + " " + request.path);
+        return decoder.decode(new ByteArrayInputStream(response.body), response.encoding, response.statusCode);
+    }
+
+    /**
+     * Collects the bytes of a request body.
+     */
+    private static String read(BodyPublisher publisher) {
+        CompletableFuture<String> body = new CompletableFuture<String>();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] chunk = new byte[item.remaining()];
+                item.get(chunk);
+                out.write(chunk, 0, chunk.length);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                body.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                body.complete(out.toString(StandardCharsets.UTF_8));
+            }
+        });
+        return body.join();
+    }
+
+    private CortexApiResult<JsonStructure> dispatch(String method, String path, CredentialTuple ct,
+            Deadline deadline, BodyPublisher publisher) throws HttpTimeoutException {
+        if (deadline != null && deadline.expired())
+            throw deadline.exceeded();
+        return dispatch(method, path, ct, publisher);
+    }
+
+    private CompletableFuture<CortexApiResult<JsonStructure>> dispatchAsync(String method, String path,
+            CredentialTuple ct, Deadline deadline, BodyPublisher publisher) {
+        if (deadline != null && deadline.expired())
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        return CompletableFuture.supplyAsync(() -> dispatch(method, path, ct, publisher), executor);
+    }
+
+    @Override
+    public CortexApiResult<JsonStructure> get(String path, CredentialTuple ct, Deadline deadline, String... headers)
+            throws HttpTimeoutException {
+        return dispatch("GET", path, ct, deadline, null);
+    }
+
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) {
+        return dispatchAsync("GET", path, ct, deadline, null);
+    }
+
+    @Override
+    public CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, Deadline deadline,
+            BodyPublisher publisher, String... headers) throws HttpTimeoutException {
+        return dispatch("POST", path, ct, deadline, publisher);
+    }
+
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
+            Deadline deadline, BodyPublisher publisher, String... headers) {
+        return dispatchAsync("POST", path, ct, deadline, publisher);
+    }
+
+    @Override
+    public CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws HttpTimeoutException {
+        return dispatch("DELETE", path, ct, deadline, null);
+    }
+
+    @Override
+    public CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) {
+        return dispatchAsync("DELETE", path, ct, deadline, null);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Query API error response.
+     * 
+     * @param statusCode HTTP status code
+     * @param message    error message
+     * @return the response
+     */
+    public static Response error(int statusCode, String message) {
+        return Response.json(statusCode, Json.createArrayBuilder()
+                .add(Json.createObjectBuilder().add("errorCode", statusCode).add("message", message)).build());
+    }
+
+    /**
+     * Creates a loopback transport that simulates the Query Service: created jobs
+     * are immediately DONE and their results are paged (using the pageSize and
+     * either the pageCursor or the zero based pageNumber parameters) from the
+     * provided row generator. Deleted jobs are forgotten.
+     * 
+     * @param rows      number of rows produced by every job
+     * @param generator row factory (receives the row index)
+     * @return the transport
+     */
+    public static LoopbackTransport queryService(int rows, IntFunction<JsonObject> generator) {
+        Map<String, Long> jobs = new ConcurrentHashMap<String, Long>();
+        String jobsPath = Constants.EP_QUERY + "jobs";
+        String resultsPath = Constants.EP_QUERY + "jobResults/";
+        LoopbackTransport transport = new LoopbackTransport();
+        transport.route("POST", jobsPath, request -> {
+            JsonObject body = Json.createReader(new StringReader(request.body)).readObject();
+            String jobId = body.getString("jobId", UUID.randomUUID().toString());
+            jobs.put(jobId, System.currentTimeMillis());
+            return Response.json(201, Json.createObjectBuilder().add("jobId", jobId).add("uri", jobsPath + "/" + jobId)
+                    .build());
+        });
+        transport.route("GET", jobsPath + "/", request -> {
+            String jobId = request.path.substring(jobsPath.length() + 1);
+            Long submitTime = jobs.get(jobId);
+            if (submitTime == null)
+                return error(404, "job " + jobId + " not found");
+            return Response.json(200,
+                    Json.createObjectBuilder().add("jobId", jobId).add("state", "DONE").add("submitTime", submitTime)
+                            .add("startTime", submitTime).add("endTime", submitTime)
+                            .add("progress", Json.createObjectBuilder().add("completionPct", 100)).build());
+        });
+        transport.route("DELETE", jobsPath + "/", request -> {
+            jobs.remove(request.path.substring(jobsPath.length() + 1));
+            return Response.json(200, "{}");
+        });
+        transport.route("GET", resultsPath, request -> {
+            String jobId = request.path.substring(resultsPath.length());
+            if (!jobs.containsKey(jobId))
+                return error(404, "job " + jobId + " not found");
+            int pageSize = Integer.parseInt(request.params.getOrDefault("pageSize", "10000"));
+            String pageNumber = request.params.get("pageNumber");
+            int from = (pageNumber == null) ? Integer.parseInt(request.params.getOrDefault("pageCursor", "0"))
+                    : Integer.parseInt(pageNumber) * pageSize;
+            int to = Math.min(rows, from + pageSize);
+            JsonArrayBuilder data = Json.createArrayBuilder();
+            for (int i = from; i < to; i++)
+                data.add(generator.apply(i));
+            var page = Json.createObjectBuilder().add("result", Json.createObjectBuilder().add("data", data));
+            if (to < rows)
+                page.add("pageCursor", String.valueOf(to));
+            else
+                page.addNull("pageCursor");
+            return Response.json(200,
+                    Json.createObjectBuilder().add("jobId", jobId).add("state", "DONE").add("rowsInJob", rows)
+                            .add("rowsInPage", to - from)
+                            .add("resultFormat", request.params.getOrDefault("resultFormat", "valuesDictionary"))
+                            .add("page", page).build());
+        });
+        return transport;
+    }
+}
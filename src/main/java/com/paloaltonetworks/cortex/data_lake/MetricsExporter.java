@@ -0,0 +1,38 @@
+/**
+ * MetricsExporter
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.List;
+
+/**
+ * Receives periodic request metrics snapshots from a fetcher (see
+ * {@link Http2Fetch#setMetricsExporter(MetricsExporter, java.time.Duration)}).
+ * Implementations adapt them to a monitoring system.
+ * 
+ * Exporters run in the fetcher scheduler thread and must not block.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+    /**
+     * Exports a snapshot.
+     * 
+     * @param metrics cumulative counters of every operation, data lake and status
+     *                class
+     */
+    void export(List<EndpointMetrics> metrics);
+}
@@ -0,0 +1,36 @@
+/**
+ * PollingStrategy
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Decides when the state of a pending query job is checked again.
+ * 
+ * Implementations must be thread safe: a single strategy is shared by all the
+ * jobs of a {@link QueryService}. See {@link AdaptivePolling} for the default
+ * one.
+ */
+public interface PollingStrategy {
+    /**
+     * Delay before the next check of a job that is still pending or running.
+     * 
+     * @param attempt   number of checks done so far (starting at 1)
+     * @param jobDetail last known job detail (null if not available)
+     * @return milliseconds to wait before checking the job again
+     */
+    long delay(int attempt, QueryJobDetail jobDetail);
+}
@@ -24,6 +24,7 @@ import javax.json.JsonValue;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -59,14 +60,17 @@ public class QueryApiError {
         }
         Integer errorCode = null;
         String message = jsonResponse.getString("message", null);
-        logger.finest("Query API Error message: " + message);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("Query API Error message: " + message);
         String context = jsonResponse.getString("context", null);
-        logger.finest("Query API Error context: " + context);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("Query API Error context: " + context);
         try {
             JsonNumber errorCodeNum = jsonResponse.getJsonNumber("errorCode");
             if (errorCodeNum != null) {
                 errorCode = errorCodeNum.intValueExact();
-                logger.finest("Query API Error errorCode: " + String.valueOf(errorCode));
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("Query API Error errorCode: " + String.valueOf(errorCode));
             }
         } catch (Exception e) {
             logger.info("Query API error JSON errorCode is not an integer.");
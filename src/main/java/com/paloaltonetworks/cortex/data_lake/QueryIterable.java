@@ -19,10 +19,15 @@ package com.paloaltonetworks.cortex.data_lake;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.JsonValue;
 
@@ -34,6 +39,18 @@ import com.paloaltonetworks.cortex.data_lake.QueryJobDetail.JobState;
  * method iteratorException() is late bound. It will return null until either an
  * iterator or a spliterator is instantiated from this iterable and the
  * corresponding exception is thrown.
+ * 
+ * The job is awaited by long polling its first page of results: the server
+ * holds each request until the page is available (up to {@link #MAX_WAIT}
+ * milliseconds), so fast jobs complete in a single round trip. Slower jobs are
+ * handed over to the job watcher of the Query Service object (see
+ * {@link QueryService#awaitJob(String, CredentialTuple)}), that checks them
+ * again when its {@link PollingStrategy} expects them to be done: the
+ * iterating thread just waits for the outcome.
+ * 
+ * When the Query Service object is bound to a {@link Deadline} the job polling
+ * never waits past it and, once it expires, the job is cancelled and the
+ * iteration is truncated with a {@link QueryServiceClientException}.
  */
 public class QueryIterable implements Iterable<JsonValue> {
 
@@ -41,17 +58,29 @@ public class QueryIterable implements Iterable<JsonValue> {
     private static final int DEFAULT_PAGE_SIZE = 400;
     private static final int MAX_RETRIES = 10;
     private static final int DEFAULT_DELAY = 200;
+    /**
+     * Longest time (milliseconds) the Query API holds a jobResults request
+     * waiting for the page to be available.
+     */
+    static final int MAX_WAIT = 2000;
     private final String sqlCommand;
     private final int delay;
     private final int retries;
-    private final CredentialTuple cred;
+    final CredentialTuple cred;
+    private final Deadline deadline;
+    private boolean jobCancelled = false;
     private static final String errMsg1 = "Can't iterate on a page with null result data.";
     private Integer size = null;
     private Exception iteratorException = null;
     private int iterator = 0;
+    // Not a monitor: lazyInit() waits and does network I/O while holding it,
+    // which would pin the carrier thread of a virtual thread.
+    private final ReentrantLock lock = new ReentrantLock();
     final QueryService qs;
     String jobId = null;
     final int pageSize;
+    private volatile int readAheadPages = 0;
+    private volatile long readAheadBytes = 0;
     QueryJobResult preloadPageResults = null;
     Iterator<JsonValue> preloadPageIterator = null;
 
@@ -61,7 +90,7 @@ public class QueryIterable implements Iterable<JsonValue> {
      * @param qs       Query Service object to be used
      * @param sqlCmd   the SQL command for this job.
      * @param pageSize page size to use.
-     * @param delay    delay (milliseconds) to wait for the job to settle.
+     * @param delay    minimum pause (milliseconds) between job status checks.
      * @param retries  number of attempts to check for job to be completed.
      * @param cred     default credentails to be used
      * @return an Iterable object to navigate the query results.
@@ -74,6 +103,7 @@ public class QueryIterable implements Iterable<JsonValue> {
         this.delay = (delay == null) ? DEFAULT_DELAY : delay;
         this.retries = (retries == null) ? MAX_RETRIES : retries;
         this.cred = cred;
+        this.deadline = qs.deadline();
     }
 
     /**
@@ -109,54 +139,284 @@ public class QueryIterable implements Iterable<JsonValue> {
     QueryJobResult loadPage(String pageCursor)
             throws InterruptedException, QueryServiceParseException, QueryServiceException, QueryServiceClientException,
             IOException, IllegalArgumentException, Http2FetchException, URISyntaxException {
-        return qs.getJobResults(jobId, null, QueryJobResult.ResultFormat.valuesDictionary, pageSize, pageCursor, null,
-                null, this.cred);
+        JfrEvents.PageFetch event = JfrEvents.beginPageFetch();
+        QueryJobResult page = null;
+        try {
+            page = qs.getJobResults(jobId, null, QueryJobResult.ResultFormat.valuesDictionary, pageSize, pageCursor,
+                    null, null, this.cred);
+            return page;
+        } catch (IOException e) {
+            throw deadlineExpired(e, JobState.DONE);
+        } finally {
+            fetched(event, (pageCursor == null) ? 0 : -1, page);
+        }
     }
 
     QueryJobResult loadPage(int pageNum)
             throws InterruptedException, QueryServiceParseException, QueryServiceException, QueryServiceClientException,
             IOException, IllegalArgumentException, Http2FetchException, URISyntaxException {
-        return qs.getJobResults(jobId, null, QueryJobResult.ResultFormat.valuesDictionary, pageSize, null, pageNum,
-                null, this.cred);
+        JfrEvents.PageFetch event = JfrEvents.beginPageFetch();
+        QueryJobResult page = null;
+        try {
+            page = qs.getJobResults(jobId, null, QueryJobResult.ResultFormat.valuesDictionary, pageSize, null,
+                    pageNum, null, this.cred);
+            return page;
+        } catch (IOException e) {
+            throw deadlineExpired(e, JobState.DONE);
+        } finally {
+            fetched(event, pageNum, page);
+        }
     }
 
-    synchronized QueryJobResult lazyInit()
-            throws IllegalArgumentException, InterruptedException, QueryServiceParseException, QueryServiceException,
-            QueryServiceClientException, IOException, Http2FetchException, URISyntaxException {
-        if (jobId != null) {
-            return null; // No need to initialize the job.
-        }
-        jobId = qs.createJob(UUID.randomUUID().toString(),
-                new QueryParams(sqlCommand, null, null, null, null, pageSize), this.cred).jobId;
-        QueryJobDetail jobDetail = qs.getJobStatus(jobId, this.cred);
-        JobState state = jobDetail.state;
-        int attempts = 0;
-        while ((state == JobState.PENDING || state == JobState.RUNNING) && attempts++ < retries) {
-            Thread.sleep(delay);
-            jobDetail = qs.getJobStatus(jobId, this.cred);
-            state = jobDetail.state;
+    CompletableFuture<QueryJobResult> loadPageAsync(int pageNum)
+            throws IllegalArgumentException, Http2FetchException, URISyntaxException {
+        JfrEvents.PageFetch event = JfrEvents.beginPageFetch();
+        CompletableFuture<QueryJobResult> page = qs.getJobResultsAsync(jobId, null,
+                QueryJobResult.ResultFormat.valuesDictionary, pageSize, null, pageNum, null, this.cred);
+        if (event != null)
+            page.whenComplete((result, e) -> fetched(event, pageNum, result));
+        return page;
+    }
+
+    private void fetched(JfrEvents.PageFetch event, int pageNumber, QueryJobResult page) {
+        if (event != null && event.shouldCommit()) {
+            event.jobId = jobId;
+            event.dataLake = qs.dataLake(cred);
+            event.pageNumber = pageNumber;
+            event.rows = (page == null || page.page.result.data == null) ? 0 : page.page.result.data.size();
+            event.bytes = (page == null) ? 0 : page.bytes;
+            event.commit();
         }
-        if (attempts >= retries) {
-            String msg = String.format("JobId %s still in status %s after %s attempts", jobId, state, attempts);
+    }
+
+    /**
+     * Cancels the job when a request failed because the deadline expired.
+     * 
+     * @param e     request failure
+     * @param state last known job state
+     * @return the exception to throw (e itself if the deadline did not expire)
+     */
+    private <E extends Exception> QueryServiceClientException deadlineExpired(E e, JobState state) throws E {
+        if (deadline == null || !deadline.expired())
+            throw e;
+        return deadlineExpired(state);
+    }
+
+    private QueryServiceClientException deadlineExpired(JobState state) {
+        lock.lock();
+        try {
+            String msg = String.format("JobId %s cancelled in status %s: %s", jobId, state, deadline);
             logger.info(msg);
+            if (jobId != null && !jobCancelled) {
+                jobCancelled = true;
+                try {
+                    qs.deleteJob(jobId, this.cred);
+                } catch (Exception e) {
+                    logger.info("Failed deleteJob() due to: " + e.getMessage());
+                }
+            }
             iteratorException = new QueryServiceClientException(msg, jobId, state, null);
-            throw (QueryServiceClientException) iteratorException;
+            return (QueryServiceClientException) iteratorException;
+        } finally {
+            lock.unlock();
         }
-        if (state != JobState.DONE) {
-            String msg = String.format("JobId %s failed with status %s", jobId, state);
-            if (jobDetail.errors != null) {
-                msg = msg + "\nErrors:";
-                for (QueryApiError item : jobDetail.errors) {
-                    msg = String.format("%s\n%s", msg, item.asString());
-                }
+    }
+
+    private QueryJobDetail poll(int attempt) throws IllegalArgumentException, InterruptedException,
+            QueryServiceParseException, QueryServiceException, QueryServiceClientException, IOException,
+            Http2FetchException, URISyntaxException {
+        JfrEvents.JobPoll event = JfrEvents.beginJobPoll();
+        QueryJobDetail jobDetail = null;
+        try {
+            jobDetail = qs.getJobStatus(jobId, this.cred);
+            return jobDetail;
+        } catch (IOException e) {
+            throw deadlineExpired(e, null);
+        } finally {
+            polled(event, attempt, (jobDetail == null) ? null : jobDetail.state);
+        }
+    }
+
+    /**
+     * Asks for the first page of results, letting the server hold the request
+     * for up to {@link #MAX_WAIT} milliseconds until it is available.
+     * 
+     * @return the first page if the job is DONE, a result carrying the job
+     *         state otherwise or null if the server ended the wait without a
+     *         response
+     */
+    private QueryJobResult longPoll(int attempt) throws IllegalArgumentException, InterruptedException,
+            QueryServiceException, QueryServiceClientException, IOException, Http2FetchException, URISyntaxException {
+        JfrEvents.JobPoll event = JfrEvents.beginJobPoll();
+        QueryJobResult result = null;
+        try {
+            result = qs.getJobResults(jobId, MAX_WAIT, QueryJobResult.ResultFormat.valuesDictionary, pageSize, null,
+                    null, null, this.cred);
+            return result;
+        } catch (QueryServiceParseException e) {
+            if (logger.isLoggable(Level.FINER))
+                logger.finer("jobResults wait for jobId " + jobId + " ended without a page: " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            throw deadlineExpired(e, null);
+        } finally {
+            polled(event, attempt, (result == null) ? null : result.state);
+        }
+    }
+
+    private void polled(JfrEvents.JobPoll event, int attempt, JobState state) {
+        if (event != null && event.shouldCommit()) {
+            event.jobId = jobId;
+            event.dataLake = qs.dataLake(cred);
+            event.attempt = attempt;
+            event.state = (state == null) ? null : state.name();
+            event.commit();
+        }
+    }
+
+    private static boolean failed(JobState state) {
+        return state != JobState.PENDING && state != JobState.RUNNING && state != JobState.DONE;
+    }
+
+    private QueryServiceClientException jobFailed(QueryJobDetail jobDetail) {
+        String msg = String.format("JobId %s failed with status %s", jobId, jobDetail.state);
+        if (jobDetail.errors != null) {
+            msg = msg + "\nErrors:";
+            for (QueryApiError item : jobDetail.errors) {
+                msg = String.format("%s\n%s", msg, item.asString());
             }
-            logger.info(msg);
-            iteratorException = QueryServiceClientException.fromJobDetails(msg, jobDetail);
-            throw (QueryServiceClientException) iteratorException;
         }
+        logger.info(msg);
+        iteratorException = QueryServiceClientException.fromJobDetails(msg, jobDetail);
+        return (QueryServiceClientException) iteratorException;
+    }
+
+    /**
+     * Hands the job over to the watcher of the Query Service object and waits
+     * for it to leave the PENDING and RUNNING states.
+     * 
+     * @param state last known job state
+     */
+    private QueryJobDetail awaitJob(JobState state) throws InterruptedException, QueryServiceParseException,
+            QueryServiceException, QueryServiceClientException, IOException {
+        CompletableFuture<QueryJobDetail> done = qs.watcher().watch(jobId, qs.statusTenantId(), this.cred, deadline,
+                retries, delay);
+        return await(done, state);
+    }
+
+    /**
+     * Waits for an asynchronous operation, throwing its failure the way the
+     * synchronous one would.
+     * 
+     * @param state last known job state
+     */
+    private <T> T await(CompletableFuture<T> future, JobState state) throws InterruptedException,
+            QueryServiceParseException, QueryServiceException, QueryServiceClientException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof QueryServiceClientException) {
+                logger.info(cause.getMessage());
+                iteratorException = (QueryServiceClientException) cause;
+                throw (QueryServiceClientException) cause;
+            }
+            if (cause instanceof IOException)
+                throw deadlineExpired((IOException) cause, state);
+            if (cause instanceof QueryServiceParseRuntimeException)
+                throw new QueryServiceParseException(cause.getMessage());
+            if (cause instanceof QueryServiceRuntimeException)
+                throw QueryServiceException.fromException((QueryServiceRuntimeException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    QueryJobResult lazyInit()
+            throws IllegalArgumentException, InterruptedException, QueryServiceParseException, QueryServiceException,
+            QueryServiceClientException, IOException, Http2FetchException, URISyntaxException {
+        lock.lock();
+        try {
+            return lockedLazyInit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private QueryJobResult lockedLazyInit()
+            throws IllegalArgumentException, InterruptedException, QueryServiceParseException, QueryServiceException,
+            QueryServiceClientException, IOException, Http2FetchException, URISyntaxException {
+        if (jobId != null) {
+            return null; // No need to initialize the job.
+        }
+        String newJobId = UUID.randomUUID().toString();
+        try {
+            jobId = qs.createJob(newJobId, new QueryParams(sqlCommand, null, null, null, null, pageSize),
+                    this.cred).jobId;
+        } catch (IOException e) {
+            if (deadline != null && deadline.expired())
+                jobId = newJobId; // the job might have been created before the deadline expired
+            throw deadlineExpired(e, null);
+        }
+        QueryJobResult firstPage = longPoll(0);
+        JobState state = (firstPage == null) ? null : firstPage.state;
+        if (state == JobState.DONE)
+            return settleJobResult(firstPage);
+        QueryJobDetail jobDetail = (state == null || !failed(state)) ? awaitJob(state) : poll(0);
+        if (failed(jobDetail.state))
+            throw jobFailed(jobDetail);
         return settleJobResult(loadPage(null));
     }
 
+    /**
+     * Fetches the pages following the one being consumed in the background, so
+     * iterators do not wait a full round trip every time they exhaust a page.
+     * 
+     * Pages are requested (by page number, so several can be in flight at once)
+     * while there is room in the read-ahead buffer. A consumer slower than the
+     * network leaves the buffer full and no more pages are requested until it
+     * takes one. The byte limit is turned into a number of pages using the
+     * decoded size of the first page response. Spliterators are not affected:
+     * they fetch their pages concurrently already. Configure it before
+     * iterating.
+     * 
+     * @param pages maximum pages buffered ahead (0 for no limit other than the
+     *              bytes one)
+     * @param bytes approximate maximum bytes buffered ahead (0 for no limit
+     *              other than the pages one)
+     * @throws IllegalArgumentException if any limit is negative
+     */
+    public void setReadAhead(int pages, long bytes) throws IllegalArgumentException {
+        if (pages < 0 || bytes < 0)
+            throw new IllegalArgumentException("read-ahead limits can't be negative");
+        this.readAheadPages = pages;
+        this.readAheadBytes = bytes;
+    }
+
+    /**
+     * Read-ahead depth of an iterator.
+     * 
+     * @param firstPage first page of the job
+     * @return pages to buffer ahead (0 to disable the read-ahead)
+     */
+    private int readAheadDepth(QueryJobResult firstPage) {
+        int pages = readAheadPages;
+        long bytes = readAheadBytes;
+        if ((pages == 0 && bytes == 0) || size == null)
+            return 0;
+        int depth = (pages == 0) ? Integer.MAX_VALUE : pages;
+        if (bytes > 0) {
+            // pages of unknown size are read one ahead
+            long pageBytes = firstPage.bytes;
+            depth = (pageBytes == 0) ? 1 : (int) Math.min(depth, Math.max(1, bytes / pageBytes));
+        }
+        return depth;
+    }
+
     /**
      * Object that can be used to iterate over the entries on this query job
      * results.
@@ -169,6 +429,11 @@ public class QueryIterable implements Iterable<JsonValue> {
             private boolean endSignal = false;
             private QueryJobResult pageResults = preloadPageResults;
             private Iterator<JsonValue> pageIterator = preloadPageIterator;
+            private final ArrayDeque<CompletableFuture<QueryJobResult>> readAhead =
+                    new ArrayDeque<CompletableFuture<QueryJobResult>>();
+            private int depth = -1;
+            // number of the last page requested (read-ahead iterators only)
+            private int requested = 0;
 
             private void iteratorPreLoad() throws IllegalArgumentException, InterruptedException,
                     QueryServiceParseException, QueryServiceException, QueryServiceClientException, IOException,
@@ -178,13 +443,48 @@ public class QueryIterable implements Iterable<JsonValue> {
                     pageResults = pr;
                     pageIterator = pr.page.result.data.iterator();
                 }
-                if (pageResults.page.pageCursor != null && !pageIterator.hasNext()) {
-                    pageResults = loadPage(pageResults.page.pageCursor);
+                if (depth < 0)
+                    depth = readAheadDepth(pageResults);
+                if (depth == 0) {
+                    if (pageResults.page.pageCursor != null && !pageIterator.hasNext()) {
+                        pageResults = loadPage(pageResults.page.pageCursor);
+                        pageIterator = pageResults.page.result.data.iterator();
+                    }
+                    return;
+                }
+                // read-ahead iterators address every page by number
+                while (!pageIterator.hasNext() && (!readAhead.isEmpty() || requested + 1 < pages())) {
+                    var next = readAhead.poll();
+                    pageResults = (next == null) ? loadPage(++requested) : await(next, JobState.DONE);
                     pageIterator = pageResults.page.result.data.iterator();
                 }
+                fillReadAhead();
+            }
+
+            /**
+             * Requests the pages following the current one until the
+             * read-ahead buffer is full.
+             */
+            private void fillReadAhead() throws IllegalArgumentException, Http2FetchException, URISyntaxException {
+                int pages = pages();
+                while (readAhead.size() < depth && requested + 1 < pages)
+                    readAhead.add(loadPageAsync(++requested));
+            }
+
+            /**
+             * @return number of pages of the job
+             */
+            private int pages() {
+                return (size + pageSize - 1) / pageSize;
+            }
+
+            private void cancelReadAhead() {
+                readAhead.forEach(page -> page.cancel(true));
+                readAhead.clear();
             }
 
             private void endTraker() {
+                cancelReadAhead();
                 if (!endSignal) {
                     endSignal = true;
                     iteratorEnded();
@@ -209,10 +509,12 @@ public class QueryIterable implements Iterable<JsonValue> {
                     } else {
                         logger.info("Failed preLoad() due to QueryServiceException");
                     }
+                    cancelReadAhead();
                     return false;
                 } catch (Exception e) {
                     iteratorException = e;
                     logger.info("Failed preLoad() due to: " + e.getMessage());
+                    cancelReadAhead();
                     return false;
                 }
                 if (pageIterator.hasNext())
@@ -231,6 +533,7 @@ public class QueryIterable implements Iterable<JsonValue> {
                 } catch (Exception e) {
                     iteratorException = e;
                     logger.info("Failed lazyInit() due to: " + e.getMessage());
+                    cancelReadAhead();
                     throw new NoSuchElementException();
                 }
                 if (pageIterator.hasNext())
@@ -247,20 +550,32 @@ public class QueryIterable implements Iterable<JsonValue> {
         return new QuerySpliterator(this);
     }
 
-    synchronized void iteratorStarted() {
-        iterator++;
+    void iteratorStarted() {
+        lock.lock();
+        try {
+            iterator++;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    synchronized void iteratorEnded() {
-        iterator--;
-        if (iterator == 0) {
-            try {
-                qs.deleteJob(jobId, this.cred);
-            } catch (Exception e) {
-                logger.info("Failed deleteJob() due to: " + e.getMessage());
-            } finally {
-                jobId = null;
+    void iteratorEnded() {
+        lock.lock();
+        try {
+            iterator--;
+            if (iterator == 0) {
+                try {
+                    if (!jobCancelled)
+                        qs.deleteJob(jobId, this.cred);
+                } catch (Exception e) {
+                    logger.info("Failed deleteJob() due to: " + e.getMessage());
+                } finally {
+                    jobId = null;
+                    jobCancelled = false;
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
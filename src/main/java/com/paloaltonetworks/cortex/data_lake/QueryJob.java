@@ -17,6 +17,7 @@
 
 package com.paloaltonetworks.cortex.data_lake;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.JsonObject;
 
@@ -39,14 +40,16 @@ public class QueryJob {
         logger.finest("request to parse a QueryJob");
         try {
             jobId = jsonResponse.getString("jobId");
-            logger.finest("QueryJob jobId: " + jobId);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("QueryJob jobId: " + jobId);
         } catch (Exception e) {
             logger.info("jobId is missing");
             throw new QueryServiceParseRuntimeException("'jobId' mandatory string property missing");
         }
         try {
             uri = jsonResponse.getString("uri");
-            logger.finest("QueryJob uri: " + uri);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("QueryJob uri: " + uri);
         } catch (Exception e) {
             logger.info("uri is missing");
             throw new QueryServiceParseRuntimeException("'uri' mandatory string property missing");
@@ -18,6 +18,7 @@
 package com.paloaltonetworks.cortex.data_lake;
 
 import java.util.Collection;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.json.JsonObject;
@@ -50,7 +51,8 @@ public class QueryJobDetail {
             Integer completionPct;
             try {
                 completionPct = jsonResponse.getJsonNumber("completionPct").intValueExact();
-                logger.finest("completionPct: " + completionPct);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("completionPct: " + completionPct);
             } catch (Exception e) {
                 logger.info("completionPct is missing or not an integer.");
                 throw new QueryServiceParseException("'completionPct' mandatory field is either missing or invalid");
@@ -93,21 +95,27 @@ public class QueryJobDetail {
             Integer etaMs = null;
             try {
                 runTimeMs = jsonResponse.getJsonNumber("runTimeMs").intValueExact();
-                logger.finest("runTimeMs: " + runTimeMs);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("runTimeMs: " + runTimeMs);
             } catch (Exception e) {
-                logger.finest(String.format("'runTimeMs' will keep being null due to: %s", e.getMessage()));
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest(String.format("'runTimeMs' will keep being null due to: %s", e.getMessage()));
             }
             try {
                 cachePct = jsonResponse.getJsonNumber("cachePct").intValueExact();
-                logger.finest("cachePct: " + cachePct);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("cachePct: " + cachePct);
             } catch (Exception e) {
-                logger.finest(String.format("'cachePct' will keep being null due to: %s", e.getMessage()));
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest(String.format("'cachePct' will keep being null due to: %s", e.getMessage()));
             }
             try {
                 etaMs = jsonResponse.getJsonNumber("etaMs").intValueExact();
-                logger.finest("etaMs: " + etaMs);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("etaMs: " + etaMs);
             } catch (Exception e) {
-                logger.finest(String.format("'etaMs' will keep being null due to: %s", e.getMessage()));
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest(String.format("'etaMs' will keep being null due to: %s", e.getMessage()));
             }
             return new Statistics(runTimeMs, cachePct, etaMs);
         }
@@ -218,7 +226,8 @@ public class QueryJobDetail {
         logger.finest("request to parse a QueryJobDetail");
         try {
             jobId = jsonResponse.getString("jobId");
-            logger.finest(("jobId: " + jobId));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(("jobId: " + jobId));
         } catch (Exception e) {
             {
                 logger.info("jobId is missing.");
@@ -227,7 +236,8 @@ public class QueryJobDetail {
         }
         try {
             submitTime = jsonResponse.getJsonNumber("submitTime").longValueExact();
-            logger.finest(("submitTime: " + submitTime));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(("submitTime: " + submitTime));
         } catch (Exception e) {
             {
                 logger.info("submitTime is missing or not an integer.");
@@ -237,7 +247,8 @@ public class QueryJobDetail {
         }
         try {
             state = JobState.valueOf(jsonResponse.getString("state"));
-            logger.finest(("state: " + state));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(("state: " + state));
         } catch (Exception e) {
             {
                 logger.info("state is missing or not a valid enum value.");
@@ -247,37 +258,45 @@ public class QueryJobDetail {
         }
         try {
             startTime = jsonResponse.getJsonNumber("startTime").longValueExact();
-            logger.finest(("startTime: " + startTime));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(("startTime: " + startTime));
         } catch (Exception e) {
-            logger.finest(String.format("'startTime' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'startTime' will keep being null due to: %s", e.getMessage()));
         }
         try {
             endTime = jsonResponse.getJsonNumber("endTime").longValueExact();
-            logger.finest(("endTime: " + endTime));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(("endTime: " + endTime));
         } catch (Exception e) {
-            logger.finest(String.format("'endTime' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'endTime' will keep being null due to: %s", e.getMessage()));
         }
         try {
             progress = Progress.parse(jsonResponse.getJsonObject("progress"));
         } catch (Exception e) {
-            logger.finest(String.format("'progress' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'progress' will keep being null due to: %s", e.getMessage()));
         }
         try {
             JsonObject paramsObj = jsonResponse.getJsonObject("params");
             if (paramsObj != null)
                 params = QueryParams.parse(jsonResponse.getJsonObject("params"));
         } catch (Exception e) {
-            logger.finest(String.format("'params' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'params' will keep being null due to: %s", e.getMessage()));
         }
         try {
             statistics = Statistics.parse(jsonResponse.getJsonObject("statistics"));
         } catch (Exception e) {
-            logger.finest(String.format("'statistics' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'statistics' will keep being null due to: %s", e.getMessage()));
         }
         try {
             errors = QueryApiError.parse(jsonResponse.getJsonArray("errors"));
         } catch (Exception e) {
-            logger.finest(String.format("'errors' will keep being null due to: %s", e.getMessage()));
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest(String.format("'errors' will keep being null due to: %s", e.getMessage()));
         }
         return new QueryJobDetail(jobId, state, submitTime, startTime, endTime, progress, params, statistics, errors);
     }
@@ -18,6 +18,7 @@
 package com.paloaltonetworks.cortex.data_lake;
 
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.JsonArray;
 import javax.json.JsonException;
@@ -204,9 +205,13 @@ public class QueryJobResult {
      * A page of the job results.
      */
     public final Page page;
+    /**
+     * Size of the decoded response body this page came in (0 if not known).
+     */
+    final long bytes;
 
     private QueryJobResult(String jobId, JobState state, ResultFormat resultFormat, Integer rowsInJob,
-            Integer rowsInPage, Schema schema, Page page) {
+            Integer rowsInPage, Schema schema, Page page, long bytes) {
         this.jobId = jobId;
         this.state = state;
         this.resultFormat = resultFormat;
@@ -214,9 +219,14 @@ public class QueryJobResult {
         this.rowsInPage = rowsInPage;
         this.schema = schema;
         this.page = page;
+        this.bytes = bytes;
     }
 
     static QueryJobResult parse(JsonObject jsonObject) throws QueryServiceParseRuntimeException {
+        return parse(jsonObject, 0);
+    }
+
+    static QueryJobResult parse(JsonObject jsonObject, long bytes) throws QueryServiceParseRuntimeException {
         String jobId;
         JobState state;
         ResultFormat resultFormat;
@@ -227,7 +237,8 @@ public class QueryJobResult {
         logger.finest("request to parse a QueryJobResult");
         try {
             jobId = jsonObject.getString("jobId");
-            logger.finest("jobId: " + jobId);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("jobId: " + jobId);
         } catch (Exception e) {
             {
                 logger.info("field 'jobId' is either missing or not a string");
@@ -237,7 +248,8 @@ public class QueryJobResult {
         try {
             String stateStr = jsonObject.getString("state");
             state = JobState.valueOf(stateStr);
-            logger.finest("state: " + stateStr);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("state: " + stateStr);
         } catch (Exception e) {
             {
                 logger.info("field 'state' is either missing or not a valid enum key");
@@ -247,7 +259,8 @@ public class QueryJobResult {
         try {
             String resultFormatStr = jsonObject.getString("resultFormat");
             resultFormat = ResultFormat.valueOf(resultFormatStr);
-            logger.finest("resultFormat: " + resultFormatStr);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("resultFormat: " + resultFormatStr);
         } catch (Exception e) {
             {
                 logger.info("field 'resultFormat' is either missing or not a valid enum key");
@@ -257,13 +270,15 @@ public class QueryJobResult {
         }
         try {
             rowsInJob = jsonObject.getJsonNumber("rowsInJob").intValueExact();
-            logger.finest("rowsInJob: " + rowsInJob);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("rowsInJob: " + rowsInJob);
         } catch (Exception e) {
             logger.finest("Problems parsing 'rowsInJob'. Assuming null");
         }
         try {
             rowsInPage = jsonObject.getJsonNumber("rowsInPage").intValueExact();
-            logger.finest("rowsInPage: " + rowsInPage);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("rowsInPage: " + rowsInPage);
         } catch (Exception e) {
             logger.finest("Problems parsing 'rowsInPage'. Assuming null");
         }
@@ -287,6 +302,6 @@ public class QueryJobResult {
             }
         }
         return new QueryJobResult(jobId, state, resultFormat, rowsInJob, rowsInPage,
-                (schema == null) ? null : Schema.parse(schema), Page.parse(page));
+                (schema == null) ? null : Schema.parse(schema), Page.parse(page), bytes);
     }
 }
\ No newline at end of file
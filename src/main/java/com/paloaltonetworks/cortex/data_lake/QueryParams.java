@@ -17,6 +17,7 @@
 
 package com.paloaltonetworks.cortex.data_lake;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -145,7 +146,8 @@ public class QueryParams {
         String query;
         try {
             query = jsonResponse.getString("query");
-            logger.finest("query" + query);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("query: " + query);
         } catch (Exception e) {
             logger.info("'query' mandatory string property missing");
             throw new QueryServiceParseException("'query' mandatory string property missing");
@@ -161,19 +163,22 @@ public class QueryParams {
             priorityStr = propertiesObject.getString("priority", null);
             try {
                 timeoutMs = propertiesObject.getInt("timeoutMs");
-                logger.finest("timeoutMs: " + timeoutMs);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("timeoutMs: " + timeoutMs);
             } catch (Exception e) {
                 logger.finest("'timeoutMs' will be null because it was either missing or not an Integer");
             }
             try {
                 maxWait = propertiesObject.getInt("maxWait");
-                logger.finest("maxWait: " + timeoutMs);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("maxWait: " + maxWait);
             } catch (Exception e) {
                 logger.finest("'maxWait' will be null because it was either missing or not an Integer");
             }
             try {
                 defaultPageSize = propertiesObject.getInt("defaultPageSize");
-                logger.finest("defaultPageSize: " + timeoutMs);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("defaultPageSize: " + defaultPageSize);
             } catch (Exception e) {
                 logger.finest("'defaultPageSize' will be null because it was either missing or not an Integer");
             }
@@ -183,7 +188,8 @@ public class QueryParams {
         if (priorityStr != null)
             try {
                 priority = Priority.valueOf(priorityStr);
-                logger.finest("priority: " + priorityStr);
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("priority: " + priorityStr);
             } catch (Exception e) {
                 {
                     logger.info("invalid enum value for 'priority'");
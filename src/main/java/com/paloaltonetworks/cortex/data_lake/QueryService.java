@@ -26,11 +26,18 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -47,10 +54,26 @@ import com.paloaltonetworks.cortex.data_lake.QueryJobResult.ResultFormat;
  * Developers would typically preefer the {@link QueryServiceClient} subclass
  * that provides an Iterable implementation to navigate through the query
  * results.
+ * 
+ * Cancelling a future returned by an asynchronous method aborts the underlying
+ * request (and resets its HTTP/2 stream when it runs over an
+ * {@link Http2Fetch}).
  */
 public class QueryService {
-    private final Http2Fetch client;
+    private final Transport client;
     private final CredentialTuple defaultCred;
+    private final Deadline deadline;
+    private static final String[] COMPRESSED = { "accept-encoding", Http2Fetch.ACCEPT_COMPRESSED };
+    /**
+     * Milliseconds a long poll response is given to arrive before its request
+     * times out.
+     */
+    static final int LONG_POLL_MARGIN = 250;
+    private volatile boolean compressedResults = false;
+    private volatile PollingStrategy pollingStrategy = AdaptivePolling.DEFAULT;
+    private static final ScheduledExecutorService POLLER = newPoller();
+    private volatile JobWatcher watcher = null;
+    private volatile String statusTenantId = null;
     private static Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
 
     /**
@@ -75,6 +98,7 @@ public class QueryService {
             KeyManagementException, KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
         this.client = new Http2Fetch(keystore, password, defaultEntryPoint, null);
         defaultCred = null;
+        deadline = null;
     }
 
     /**
@@ -87,6 +111,40 @@ public class QueryService {
     public QueryService(Http2Fetch client, CredentialTuple cred) {
         this.client = client;
         defaultCred = cred;
+        deadline = null;
+    }
+
+    /**
+     * Low level Cortex Query Service API wrapper class. Constructor that uses
+     * the provided transport (i.e. a {@link LoopbackTransport}).
+     * 
+     * Tuning methods (parse executor, hedging, circuit breakers, warm up and
+     * stats) are forwarded to the transport. The ones it does not support are
+     * ignored and report empty statistics (see {@link Transport}).
+     * 
+     * @param transport engine to use to interface with the Cortex API End Point
+     * @param cred      default credentails to be used
+     */
+    public QueryService(Transport transport, CredentialTuple cred) {
+        this.client = transport;
+        defaultCred = cred;
+        deadline = null;
+    }
+
+    /**
+     * Copy of a wrapper bound to a deadline. See {@link #withDeadline(Deadline)}.
+     * 
+     * @param qs       wrapper to copy
+     * @param deadline deadline of every operation (null for none)
+     */
+    protected QueryService(QueryService qs, Deadline deadline) {
+        this.client = qs.client;
+        this.defaultCred = qs.defaultCred;
+        this.compressedResults = qs.compressedResults;
+        this.pollingStrategy = qs.pollingStrategy;
+        this.statusTenantId = qs.statusTenantId;
+        this.watcher = qs.watcher();
+        this.deadline = deadline;
     }
 
     /**
@@ -101,18 +159,256 @@ public class QueryService {
             throws KeyManagementException, NoSuchAlgorithmException {
         this.client = new Http2Fetch(cred, null, false);
         defaultCred = null;
+        deadline = null;
+    }
+
+    /**
+     * Low level Cortex Query Service API wrapper class. Constructor that creates an
+     * underlying JWT Http2Fetch that runs its asynchronous tasks in the provided
+     * executor.
+     * 
+     * @param cred     default credentails to be used
+     * @param executor executor for the HTTP client tasks and response decoding.
+     *                 See {@link Http2Fetch#virtualThreadExecutor()}
+     * @throws KeyManagementException   Issues with the local OS SSL Libraries.
+     * @throws NoSuchAlgorithmException Issues with the local OS SSL Libraries.
+     */
+    public QueryService(Function<Boolean, Map.Entry<String, String>> cred, Executor executor)
+            throws KeyManagementException, NoSuchAlgorithmException {
+        this.client = new Http2Fetch(cred, null, false, 1, executor);
+        defaultCred = null;
+        deadline = null;
+    }
+
+    /**
+     * Wrapper that shares the transport and default credential of this one and
+     * bounds all its operations, synchronous or asynchronous, to the provided
+     * deadline. Each request gets the remaining budget as its timeout, the job
+     * {@code timeoutMs} and any {@code maxWait} are capped to it and requests
+     * issued after it expires fail with a
+     * {@link java.net.http.HttpTimeoutException}. Job deletions are not bound
+     * to the deadline, so an expired job can still be cancelled.
+     * 
+     * @param deadline deadline of every operation (null for none)
+     * @return the bound wrapper
+     */
+    public QueryService withDeadline(Deadline deadline) {
+        return new QueryService(this, deadline);
+    }
+
+    /**
+     * Deadline the operations of this wrapper are bound to.
+     * 
+     * @return the deadline or null if there is none
+     */
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * Decodes and parses the responses of the asynchronous methods in the
+     * provided executor instead of the HTTP client threads. See
+     * {@link Http2Fetch#setParseExecutor(Executor)}.
+     * 
+     * @param parseExecutor executor for response parsing (null to restore the
+     *                      default)
+     */
+    public void setParseExecutor(Executor parseExecutor) {
+        client.setParseExecutor(parseExecutor);
+    }
+
+    /**
+     * Negotiates compressed responses for the job results requests. Result pages
+     * (specially in {@code valuesDictionary} format, that repeats the column names
+     * on each row) compress very well. Other requests are not affected.
+     * 
+     * @param compressedResults true to ask for gzip or deflate encoded pages
+     */
+    public void setCompressedResults(boolean compressedResults) {
+        this.compressedResults = compressedResults;
+    }
+
+    /**
+     * Strategy deciding when the {@link QueryIterable} objects of this wrapper
+     * check their pending jobs again.
+     * 
+     * @param pollingStrategy strategy to use (null restores
+     *                        {@link AdaptivePolling#DEFAULT})
+     */
+    public void setPollingStrategy(PollingStrategy pollingStrategy) {
+        this.pollingStrategy = (pollingStrategy == null) ? AdaptivePolling.DEFAULT : pollingStrategy;
+    }
+
+    /**
+     * Checks the jobs awaited without an explicit tenant (i.e. the ones of the
+     * {@link QueryIterable} objects) in batches, through the jobs list of the
+     * provided tenant. Status traffic then grows with the number of tenants
+     * instead of the number of pending jobs.
+     * 
+     * @param tenantId Tenant ID the jobs of this object belong to (null to check
+     *                 each job on its own)
+     */
+    public void setStatusTenantId(String tenantId) {
+        this.statusTenantId = tenantId;
+    }
+
+    String statusTenantId() {
+        return statusTenantId;
+    }
+
+    PollingStrategy pollingStrategy() {
+        return pollingStrategy;
+    }
+
+    /**
+     * Scheduler shared by every wrapper to advance the job watchers.
+     */
+    static ScheduledExecutorService poller() {
+        return POLLER;
+    }
+
+    JobWatcher watcher() {
+        JobWatcher jw = watcher;
+        if (jw == null) {
+            synchronized (this) {
+                if (watcher == null)
+                    watcher = new JobWatcher(this);
+                jw = watcher;
+            }
+        }
+        return jw;
+    }
+
+    private static ScheduledExecutorService newPoller() {
+        ScheduledThreadPoolExecutor poller = new ScheduledThreadPoolExecutor(1,
+                Tools.daemonThreadFactory("cortex-job-poller"));
+        poller.setRemoveOnCancelPolicy(true);
+        return poller;
+    }
+
+    /**
+     * Hedges the job results page requests. See
+     * {@link Http2Fetch#setHedgePolicy(HedgePolicy)}.
+     * 
+     * @param hedgePolicy policy to use (null disables hedging)
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        client.setHedgePolicy(hedgePolicy);
+    }
+
+    /**
+     * Hedged request counters of the underlying transport.
+     * 
+     * @return a counters snapshot or null if hedging is not enabled
+     */
+    public HedgeStats hedgeStats() {
+        return client.hedgeStats();
+    }
+
+    /**
+     * Enables fail-fast circuit breakers in the underlying transport. See
+     * {@link Http2Fetch#setCircuitBreakerPolicy(CircuitBreakerPolicy)}.
+     * 
+     * @param circuitBreakerPolicy thresholds (null disables the circuit breakers)
+     */
+    public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        client.setCircuitBreakerPolicy(circuitBreakerPolicy);
+    }
+
+    /**
+     * Registers a listener for circuit breaker state changes. See
+     * {@link Http2Fetch#addCircuitBreakerListener(Consumer)}.
+     * 
+     * @param listener state change listener
+     */
+    public void addCircuitBreakerListener(Consumer<CircuitBreakerEvent> listener) {
+        client.addCircuitBreakerListener(listener);
+    }
+
+    /**
+     * Opens the connections and checks the credentials ahead of the first query.
+     * See {@link Http2Fetch#warmUp(CredentialTuple...)}.
+     * 
+     * @param tuples additional credential tuples to warm up
+     * @return a future with the outcome for each credential
+     */
+    public CompletableFuture<List<WarmUpResult>> warmUp(CredentialTuple... tuples) {
+        if (defaultCred == null)
+            return client.warmUp(tuples);
+        CredentialTuple[] all = Arrays.copyOf(tuples, tuples.length + 1);
+        all[tuples.length] = defaultCred;
+        return client.warmUp(all);
+    }
+
+    /**
+     * Response body transfer counters of the underlying transport.
+     * 
+     * @return a counters snapshot
+     */
+    public TransferStats transferStats() {
+        return client.transferStats();
+    }
+
+    /**
+     * Per operation latency histograms and counters of the underlying transport.
+     * See {@link Http2Fetch#metrics()}.
+     * 
+     * @return a metrics snapshot
+     */
+    public List<EndpointMetrics> metrics() {
+        return client.metrics();
+    }
+
+    /**
+     * Data lake a request is sent to.
+     * 
+     * @return the data lake identifier or null for the default credential
+     */
+    String dataLake(CredentialTuple cred) {
+        CredentialTuple ct = sw(cred);
+        return (ct == null) ? null : ct.dlid;
     }
 
     private CredentialTuple sw(CredentialTuple cred) {
         return (cred == null) ? defaultCred : cred;
     }
 
+    /**
+     * Caps the job server side timeout and wait properties to the deadline.
+     */
+    private QueryParams bound(QueryParams queryParams) {
+        if (deadline == null)
+            return queryParams;
+        return new QueryParams(queryParams.query, queryParams.dialect, queryParams.priority,
+                deadline.cap(queryParams.timeoutMs),
+                (queryParams.maxWait == null) ? null : deadline.cap(queryParams.maxWait), queryParams.defaultPageSize);
+    }
+
+    /**
+     * Caps a job results server side wait to the deadline and keeps it
+     * {@link #LONG_POLL_MARGIN} milliseconds below the request timeout, so the
+     * server answers before the request times out.
+     */
+    private Integer bound(Integer maxWait) {
+        if (maxWait == null)
+            return null;
+        long limit = Integer.MAX_VALUE;
+        Duration timeout = client.requestTimeout();
+        if (timeout != null)
+            limit = timeout.toMillis();
+        if (deadline != null)
+            limit = Math.min(limit, deadline.remainingMillis());
+        return (int) Math.max(0, Math.min(maxWait, limit - LONG_POLL_MARGIN));
+    }
+
     private BodyPublisher prepareCreateJob(String jobId, QueryParams queryParams) {
+        queryParams = bound(queryParams);
         JsonObjectBuilder jsonBody = Json.createObjectBuilder().add("params", queryParams.toJson());
         if (jobId != null)
             jsonBody.add("jobId", jobId);
         var body = jsonBody.build().toString();
-        logger.finer("HTTP2 request body: " + body);
+        if (logger.isLoggable(Level.FINER))
+            logger.finer("HTTP2 request body: " + body);
         return BodyPublishers.ofString(body);
     }
 
@@ -168,15 +464,21 @@ public class QueryService {
             QueryServiceException, Http2FetchException, URISyntaxException {
         if (queryParams == null)
             throw new IllegalArgumentException("'queryParams' parameter is mandatory");
-        logger.finest("createJob request with jobId " + jobId);
-        CortexApiResult<JsonStructure> response = client.post(Constants.EP_QUERY + "jobs", this.sw(cred),
-                prepareCreateJob(jobId, queryParams), "content-type", "application/json");
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("createJob request with jobId " + jobId);
+        JfrEvents.JobSubmit event = JfrEvents.beginJobSubmit();
+        QueryJob job = null;
         try {
-            return processCreateJob(response);
+            CortexApiResult<JsonStructure> response = client.post(Constants.EP_QUERY + "jobs", this.sw(cred), deadline,
+                    prepareCreateJob(jobId, queryParams), "content-type", "application/json");
+            job = processCreateJob(response);
+            return job;
         } catch (QueryServiceParseRuntimeException e) {
             throw new QueryServiceParseException(e.getMessage());
         } catch (QueryServiceRuntimeException e) {
             throw QueryServiceException.fromException(e);
+        } finally {
+            submitted(event, jobId, job, cred);
         }
     }
 
@@ -199,7 +501,9 @@ public class QueryService {
      * @param queryParams Details of the query to be executed
      * @param cred        Optional credential tuple to override default one
      * @return A CompletableFuture that resolves to a QueryJob object for this
-     *         request
+     *         request. Cancelling it aborts the request and asynchronously
+     *         deletes the job if it was (or, when jobId is provided, might have
+     *         been) created.
      * @throws URISyntaxException  unsupported usage of this object
      * @throws Http2FetchException unsupported usage of this object
      */
@@ -207,9 +511,64 @@ public class QueryService {
             throws Http2FetchException, URISyntaxException {
         if (queryParams == null)
             throw new IllegalArgumentException("'queryParams' parameter is mandatory");
-        logger.finest("createJobAsync request with jobId " + jobId);
-        return client.postAsync(Constants.EP_QUERY + "jobs", this.sw(cred), prepareCreateJob(jobId, queryParams),
-                "content-type", "application/json").thenApply(this::processCreateJob);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("createJobAsync request with jobId " + jobId);
+        JfrEvents.JobSubmit event = JfrEvents.beginJobSubmit();
+        CompletableFuture<CortexApiResult<JsonStructure>> response = client.postAsync(Constants.EP_QUERY + "jobs",
+                this.sw(cred), deadline, prepareCreateJob(jobId, queryParams), "content-type", "application/json");
+        CompletableFuture<QueryJob> parsed = response.thenApply(this::processCreateJob);
+        CompletableFuture<QueryJob> job = (event == null) ? parsed
+                : parsed.whenComplete((created, e) -> submitted(event, jobId, created, cred));
+        job.whenComplete((created, e) -> {
+            if (job.isCancelled())
+                abandon(jobId, response, cred);
+        });
+        return job;
+    }
+
+    /**
+     * Cleans up after a cancelled {@link #createJobAsync}: aborts the request
+     * and deletes the job it created. If the request was aborted in flight the
+     * server might have created the job anyway, so a client provided jobId is
+     * deleted too.
+     */
+    private void abandon(String jobId, CompletableFuture<CortexApiResult<JsonStructure>> response,
+            CredentialTuple cred) {
+        String created = jobId;
+        if (!response.cancel(true) && !response.isCompletedExceptionally()) {
+            CortexApiResult<JsonStructure> result = response.join();
+            if (result.statusCode >= 400)
+                return;
+            try {
+                created = processCreateJob(result).jobId;
+            } catch (RuntimeException e) {
+                logger.info("Failed to parse the response of a cancelled createJob: " + e.getMessage());
+            }
+        }
+        if (created == null) {
+            logger.info("createJobAsync cancelled in flight without a jobId: the job can't be deleted");
+            return;
+        }
+        String abandoned = created;
+        if (logger.isLoggable(Level.FINE))
+            logger.fine("createJobAsync cancelled, deleting jobId " + abandoned);
+        try {
+            deleteJobAsync(abandoned, cred).whenComplete((r, e) -> {
+                if (e != null)
+                    logger.info("Failed deleteJob() of cancelled jobId " + abandoned + " due to: " + e.getMessage());
+            });
+        } catch (Exception e) {
+            logger.info("Failed deleteJob() of cancelled jobId " + abandoned + " due to: " + e.getMessage());
+        }
+    }
+
+    private void submitted(JfrEvents.JobSubmit event, String jobId, QueryJob job, CredentialTuple cred) {
+        if (event != null && event.shouldCommit()) {
+            event.jobId = (job != null) ? job.jobId : jobId;
+            event.dataLake = dataLake(cred);
+            event.succeeded = job != null;
+            event.commit();
+        }
     }
 
     private String prepareGetJobList(String tenantId, Long createdAfter, Integer maxJobs, QueryJobDetail.JobState state)
@@ -272,8 +631,9 @@ public class QueryService {
             throws QueryServiceParseException, QueryServiceException, IOException, InterruptedException,
             IllegalArgumentException, Http2FetchException, URISyntaxException {
         CortexApiResult<JsonStructure> response = client.get(prepareGetJobList(tenantId, createdAfter, maxJobs, state),
-                this.sw(cred), (String[]) null);
-        logger.finest("getJobsList request for tenantId " + tenantId);
+                this.sw(cred), deadline, (String[]) null);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobsList request for tenantId " + tenantId);
         try {
             return processGetJobList(response);
         } catch (QueryServiceParseRuntimeException e) {
@@ -326,10 +686,11 @@ public class QueryService {
     public CompletableFuture<List<QueryJobDetail>> getJobsListAsync(String tenantId, Long createdAfter, Integer maxJobs,
             QueryJobDetail.JobState state, CredentialTuple cred)
             throws IllegalArgumentException, Http2FetchException, URISyntaxException {
-        logger.finest("getJobsListAsync request for tenantId " + tenantId);
-        return client
-                .getAsync(prepareGetJobList(tenantId, createdAfter, maxJobs, state), this.sw(cred), (String[]) null)
-                .thenApply(this::processGetJobList);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobsListAsync request for tenantId " + tenantId);
+        var response = client.getAsync(prepareGetJobList(tenantId, createdAfter, maxJobs, state), this.sw(cred),
+                deadline, (String[]) null);
+        return Tools.propagateCancel(response.thenApply(this::processGetJobList), response);
     }
 
     /**
@@ -394,8 +755,10 @@ public class QueryService {
     public QueryJobDetail getJobStatus(String jobId, CredentialTuple cred)
             throws QueryServiceParseException, QueryServiceException, IOException, InterruptedException,
             IllegalArgumentException, Http2FetchException, URISyntaxException {
-        CortexApiResult<JsonStructure> response = client.get(prepareJobById(jobId), this.sw(cred), (String[]) null);
-        logger.finest("getJobStatus request for jobId " + jobId);
+        CortexApiResult<JsonStructure> response = client.get(prepareJobById(jobId), this.sw(cred), deadline,
+                (String[]) null);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobStatus request for jobId " + jobId);
         try {
             return processJobById(response);
         } catch (QueryServiceParseRuntimeException e) {
@@ -421,8 +784,57 @@ public class QueryService {
      */
     public CompletableFuture<QueryJobDetail> getJobStatusAsync(String jobId, CredentialTuple cred)
             throws IllegalArgumentException, Http2FetchException, URISyntaxException {
-        logger.finest("getJobStatus request for jobId " + jobId);
-        return client.getAsync(prepareJobById(jobId), this.sw(cred), (String[]) null).thenApply(this::processJobById);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobStatus request for jobId " + jobId);
+        return getJobStatusAsync(jobId, cred, deadline);
+    }
+
+    CompletableFuture<QueryJobDetail> getJobStatusAsync(String jobId, CredentialTuple cred, Deadline deadline)
+            throws IllegalArgumentException, Http2FetchException, URISyntaxException {
+        var response = client.getAsync(prepareJobById(jobId), this.sw(cred), deadline, (String[]) null);
+        return Tools.propagateCancel(response.thenApply(this::processJobById), response);
+    }
+
+    /**
+     * Waits for a query job to complete without blocking any thread.
+     * 
+     * The job is tracked, along with every other job awaited through this
+     * object or its deadline bound copies, by a single timer wheel that checks
+     * its status when the {@link PollingStrategy} (see
+     * {@link #setPollingStrategy(PollingStrategy)}) expects it to be done. Jobs
+     * are checked in batches when a status tenant is set (see
+     * {@link #setStatusTenantId(String)}).
+     * 
+     * @param jobId ID of the query job to wait for
+     * @param cred  Optional credential tuple to override default one
+     * @return CompletableFuture that resolves to the QueryJobDetails Object of
+     *         the job once it is no longer pending or running (i.e. DONE or
+     *         FAILED). It fails if a status check fails or the deadline of this
+     *         object expires. Cancelling it stops watching the job but does not
+     *         cancel the job.
+     */
+    public CompletableFuture<QueryJobDetail> awaitJob(String jobId, CredentialTuple cred) {
+        return watcher().watch(jobId, statusTenantId, cred, deadline, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Waits for a query job of a tenant to complete without blocking any thread.
+     * 
+     * Like {@link #awaitJob(String, CredentialTuple)} but all the jobs awaited
+     * for the same tenant (and data lake) are checked together, with a single
+     * jobs list request per check (see
+     * {@link #getJobsListAsync(String, CredentialTuple)}). The detail of a job
+     * is only requested once the list shows it is no longer pending or running.
+     * 
+     * @param jobId    ID of the query job to wait for
+     * @param tenantId Tenant ID the job belongs to (null to check the job on its
+     *                 own)
+     * @param cred     Optional credential tuple to override default one
+     * @return CompletableFuture that resolves to the QueryJobDetails Object of
+     *         the job once it is no longer pending or running.
+     */
+    public CompletableFuture<QueryJobDetail> awaitJob(String jobId, String tenantId, CredentialTuple cred) {
+        return watcher().watch(jobId, tenantId, cred, deadline, Integer.MAX_VALUE, 0);
     }
 
     /**
@@ -446,8 +858,15 @@ public class QueryService {
      */
     public void deleteJob(String jobId, CredentialTuple cred) throws QueryServiceParseException, QueryServiceException,
             IOException, InterruptedException, IllegalArgumentException, Http2FetchException, URISyntaxException {
-        client.delete(prepareJobById(jobId), this.sw(cred), (String[]) null);
-        logger.finest("deleteJob request for jobId " + jobId);
+        JfrEvents.JobDelete event = JfrEvents.beginJobDelete();
+        CortexApiResult<JsonStructure> response = null;
+        try {
+            response = client.delete(prepareJobById(jobId), this.sw(cred), (String[]) null);
+        } finally {
+            deleted(event, jobId, response, cred);
+        }
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("deleteJob request for jobId " + jobId);
     }
 
     /**
@@ -467,9 +886,24 @@ public class QueryService {
      */
     public CompletableFuture<Void> deleteJobAsync(String jobId, CredentialTuple cred)
             throws IllegalArgumentException, Http2FetchException, URISyntaxException {
-        logger.finest("deleteJobAsync request for jobId " + jobId);
-        return client.deleteAsync(prepareJobById(jobId), this.sw(cred), (String[]) null).thenAccept((item) -> {
-        });
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("deleteJobAsync request for jobId " + jobId);
+        JfrEvents.JobDelete event = JfrEvents.beginJobDelete();
+        var response = client.deleteAsync(prepareJobById(jobId), this.sw(cred), (String[]) null);
+        var completed = (event == null) ? response
+                : response.whenComplete((result, e) -> deleted(event, jobId, result, cred));
+        return Tools.propagateCancel(completed.thenAccept((item) -> {
+        }), response);
+    }
+
+    private void deleted(JfrEvents.JobDelete event, String jobId, CortexApiResult<JsonStructure> response,
+            CredentialTuple cred) {
+        if (event != null && event.shouldCommit()) {
+            event.jobId = jobId;
+            event.dataLake = dataLake(cred);
+            event.succeeded = response != null && response.statusCode < 400;
+            event.commit();
+        }
     }
 
     private String prepareGetJobResults(String jobId, Integer maxWait, ResultFormat resultFormat, Integer pageSize,
@@ -496,11 +930,20 @@ public class QueryService {
 
     private QueryJobResult processGetJobResults(CortexApiResult<JsonStructure> response)
             throws QueryServiceRuntimeException, QueryServiceParseRuntimeException {
+        if (response == null) {
+            logger.info("response body is null");
+            throw new QueryServiceParseRuntimeException("response body is null");
+        }
         if (response.statusCode >= 400) {
             logger.info("invalid response code " + response.statusCode);
             throw QueryServiceRuntimeException.factory(String.format("invalid response code %s", response.statusCode),
                     response.statusCode, response.result);
         }
+        if (response.result == null) {
+            // i.e. a maxWait that elapsed before the page was available
+            logger.info("response without a JSON body");
+            throw new QueryServiceParseRuntimeException("response without a JSON body");
+        }
         JsonObject objectResponse;
         try {
             objectResponse = response.result.asJsonObject();
@@ -508,7 +951,7 @@ public class QueryService {
             logger.info("response is not a valid JSON object");
             throw new QueryServiceParseRuntimeException("response is not a valid JSON object");
         }
-        return QueryJobResult.parse(objectResponse);
+        return QueryJobResult.parse(objectResponse, response.bytes);
     }
 
     /**
@@ -582,10 +1025,15 @@ public class QueryService {
         if (pageCursor != null && pageNumber != null)
             throw new IllegalArgumentException("use either 'pageCursor' or 'pageNumber'");
 
-        logger.finest("getJobResults request for jobId " + jobId);
-        CortexApiResult<JsonStructure> response = client.get(
-                prepareGetJobResults(jobId, maxWait, resultFormat, pageSize, pageCursor, pageNumber, offset),
-                this.sw(cred), (String[]) null);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobResults request for jobId " + jobId);
+        Integer wait = bound(maxWait);
+        String path = prepareGetJobResults(jobId, wait, resultFormat, pageSize, pageCursor, pageNumber, offset);
+        String[] headers = compressedResults ? COMPRESSED : null;
+        // long polls are slow on purpose, hedging them would only duplicate them
+        CortexApiResult<JsonStructure> response = (wait != null && wait > 0)
+                ? client.get(path, this.sw(cred), deadline, headers)
+                : client.getHedged(path, this.sw(cred), deadline, headers);
         try {
             return processGetJobResults(response);
         } catch (QueryServiceParseRuntimeException e) {
@@ -712,11 +1160,14 @@ public class QueryService {
         if (pageCursor != null && pageNumber != null)
             throw new IllegalArgumentException("use either 'pageCursor' or 'pageNumber'");
 
-        logger.finest("getJobResultsAsync` request for jobId " + jobId);
-        return client
-                .getAsync(prepareGetJobResults(jobId, maxWait, resultFormat, pageSize, pageCursor, pageNumber, offset),
-                        this.sw(cred), (String[]) null)
-                .thenApply(this::processGetJobResults);
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("getJobResultsAsync` request for jobId " + jobId);
+        Integer wait = bound(maxWait);
+        String path = prepareGetJobResults(jobId, wait, resultFormat, pageSize, pageCursor, pageNumber, offset);
+        String[] headers = compressedResults ? COMPRESSED : null;
+        var response = (wait != null && wait > 0) ? client.getAsync(path, this.sw(cred), deadline, headers)
+                : client.getHedgedAsync(path, this.sw(cred), deadline, headers);
+        return Tools.propagateCancel(response.thenApply(this::processGetJobResults), response);
     }
 
     /**
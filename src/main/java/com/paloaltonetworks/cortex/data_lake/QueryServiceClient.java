@@ -24,6 +24,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -74,6 +75,18 @@ public class QueryServiceClient extends QueryService {
         super(client, cred);
     }
 
+    /**
+     * High Level Cortex Query Service subclass to manage queries as Collections.
+     * Constructor that uses the provided transport (i.e. a
+     * {@link LoopbackTransport}).
+     * 
+     * @param transport engine to use to interface with the Cortex API End Point
+     * @param cred      default credentails to be used
+     */
+    public QueryServiceClient(Transport transport, CredentialTuple cred) {
+        super(transport, cred);
+    }
+
     /**
      * High Level Cortex Query Service subclass to manage queries as Collections.
      * Constructor that creates an underlying JWT Http2Fetch to be used by
@@ -88,6 +101,60 @@ public class QueryServiceClient extends QueryService {
         super(cred);
     }
 
+    /**
+     * High Level Cortex Query Service subclass to manage queries as Collections.
+     * Constructor that creates an underlying JWT Http2Fetch that runs its
+     * asynchronous tasks in the provided executor.
+     * 
+     * @param cred     default credentails to be used
+     * @param executor executor for the HTTP client tasks and response decoding.
+     *                 See {@link Http2Fetch#virtualThreadExecutor()}
+     * @throws KeyManagementException   Issues with the local OS SSL Libraries.
+     * @throws NoSuchAlgorithmException Issues with the local OS SSL Libraries.
+     */
+    public QueryServiceClient(Function<Boolean, Map.Entry<String, String>> cred, Executor executor)
+            throws KeyManagementException, NoSuchAlgorithmException {
+        super(cred, executor);
+    }
+
+    private QueryServiceClient(QueryServiceClient qs, Deadline deadline) {
+        super(qs, deadline);
+    }
+
+    /**
+     * Client that shares the transport and default credential of this one and
+     * bounds all its operations, including the iterables and streams it creates,
+     * to the provided deadline. See {@link QueryService#withDeadline(Deadline)}.
+     * 
+     * @param deadline deadline of every operation (null for none)
+     * @return the bound client
+     */
+    @Override
+    public QueryServiceClient withDeadline(Deadline deadline) {
+        return new QueryServiceClient(this, deadline);
+    }
+
+    /**
+     * Constructs an Iterable object to navigate a Cortex API Query that must be
+     * completed before the provided deadline. Job polling stops and the job is
+     * cancelled once it expires, and the iteration is truncated with a
+     * {@link QueryServiceClientException} as its
+     * {@link QueryIterable#iteratorException()}.
+     * 
+     * @param sqlCommand the SQL command for this job.
+     * @param pageSize   page size to use.
+     * @param delay      delay (milliseconds) to wait for the job to settle.
+     * @param retries    number of attempts to check for job to be completed.
+     * @param cred       Optional credential tuple to override default one
+     * @param deadline   deadline of the whole query (job creation, polling and
+     *                   every page)
+     * @return an Iterable object to navigate the query results.
+     */
+    public QueryIterable iterable(String sqlCommand, Integer pageSize, Integer delay, Integer retries,
+            CredentialTuple cred, Deadline deadline) {
+        return withDeadline(deadline).iterable(sqlCommand, pageSize, delay, retries, cred);
+    }
+
     /**
      * Constructs an Iterable object to navigate a Cortex API Query.
      * 
@@ -164,6 +231,25 @@ public class QueryServiceClient extends QueryService {
         return StreamSupport.stream(iterable(sqlCommand, pageSize, delay, retries, cred).spliterator(), true);
     }
 
+    /**
+     * Constructs a stream object to allow a parallel processing of items produced
+     * by a query that must be completed before the provided deadline. See
+     * {@link #iterable(String, Integer, Integer, Integer, CredentialTuple, Deadline)}.
+     * 
+     * @param sqlCommand the SQL command for this job.
+     * @param pageSize   page size to use.
+     * @param delay      delay (milliseconds) to wait for the job to settle.
+     * @param retries    number of attempts to check for job to be completed.
+     * @param cred       Optional credential tuple to override default one
+     * @param deadline   deadline of the whole query (job creation, polling and
+     *                   every page)
+     * @return an object that implements the parallel Stream interface
+     */
+    public Stream<JsonValue> stream(String sqlCommand, Integer pageSize, Integer delay, Integer retries,
+            CredentialTuple cred, Deadline deadline) {
+        return withDeadline(deadline).stream(sqlCommand, pageSize, delay, retries, cred);
+    }
+
     /**
      * Constructs a stream object to allow a parallel processing of items produced
      * by a query with defaults values:
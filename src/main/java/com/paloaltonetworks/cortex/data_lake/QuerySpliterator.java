@@ -90,10 +90,14 @@ class QuerySpliterator implements Spliterator<JsonValue> {
 
     @Override
     public Spliterator<JsonValue> trySplit() {
+        JfrEvents.Split event = JfrEvents.beginSplit();
+        int splitPage = -1;
+        int lastPage = endPage;
         try {
             spliteratorPreLoad();
+            lastPage = endPage;
             if (endPage > currentPage) {
-                int splitPage = 1 + currentPage + ((endPage - currentPage) >> 1);
+                splitPage = 1 + currentPage + ((endPage - currentPage) >> 1);
                 var newSpliterator = new QuerySpliterator(this, qi.loadPage(splitPage), splitPage);
                 endPage = splitPage - 1;
                 remainder = 0;
@@ -102,7 +106,17 @@ class QuerySpliterator implements Spliterator<JsonValue> {
             }
             return null;
         } catch (Exception e) {
+            splitPage = -1;
             return null;
+        } finally {
+            if (event != null && event.shouldCommit()) {
+                event.jobId = qi.jobId;
+                event.dataLake = qi.qs.dataLake(qi.cred);
+                event.currentPage = currentPage;
+                event.endPage = lastPage;
+                event.splitPage = splitPage;
+                event.commit();
+            }
         }
     }
 
@@ -0,0 +1,140 @@
+/**
+ * RequestHedger
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs a request and, if it is slower than the policy percentile of the
+ * recent latencies, a duplicate one. The first successful response wins and the
+ * other request is cancelled. A failure only completes the result once no
+ * other request is pending.
+ */
+class RequestHedger {
+    private static final int WINDOW = 256;
+    private final HedgePolicy policy;
+    private final long[] latencies = new long[WINDOW];
+    private int samples = 0;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    RequestHedger(HedgePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Issues a hedged request.
+     * 
+     * @param <T>      response type
+     * @param request  factory of (cancellable) request attempts
+     * @param executor executor used to trigger the duplicate request
+     * @return the first successful response
+     */
+    <T> CompletableFuture<T> hedge(Supplier<CompletableFuture<T>> request, Executor executor) {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        long delay = delayNanos();
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        AtomicReference<CompletableFuture<T>> backup = new AtomicReference<CompletableFuture<T>>();
+        // attempts launched and not failed yet, the result fails when it drops to 0
+        AtomicInteger pending = new AtomicInteger(1);
+        CompletableFuture<T> primary = request.get();
+        result.whenComplete((r, e) -> {
+            primary.cancel(true);
+            Tools.cancel(backup.get());
+        });
+        primary.whenComplete((r, e) -> {
+            if (e == null) {
+                if (result.complete(r))
+                    record(System.nanoTime() - start);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(Tools.unwrap(e));
+            }
+        });
+        if (delay >= 0)
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor).execute(() -> {
+                if (result.isDone() || !reserve(pending))
+                    return;
+                hedges.incrementAndGet();
+                CompletableFuture<T> second = request.get();
+                backup.set(second);
+                second.whenComplete((r, e) -> {
+                    if (e == null) {
+                        // counted before completing so the win is visible to the caller
+                        hedgeWins.incrementAndGet();
+                        if (result.complete(r))
+                            record(System.nanoTime() - start);
+                        else
+                            hedgeWins.decrementAndGet();
+                    } else if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(Tools.unwrap(e));
+                    }
+                });
+                if (result.isDone())
+                    second.cancel(true);
+            });
+        return result;
+    }
+
+    /**
+     * Counts a new attempt unless every previous attempt has already failed.
+     */
+    private static boolean reserve(AtomicInteger pending) {
+        for (;;) {
+            int current = pending.get();
+            if (current == 0)
+                return false;
+            if (pending.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    private synchronized void record(long latency) {
+        latencies[samples++ % WINDOW] = latency;
+    }
+
+    /**
+     * Current hedging delay.
+     * 
+     * @return nanoseconds to wait before sending the duplicate request or -1 if
+     *         there are not enough samples yet
+     */
+    long delayNanos() {
+        long[] window;
+        synchronized (this) {
+            if (samples < HedgePolicy.MIN_SAMPLES)
+                return -1;
+            window = Arrays.copyOf(latencies, Math.min(samples, WINDOW));
+        }
+        Arrays.sort(window);
+        int index = (int) Math.ceil(policy.percentile * window.length) - 1;
+        return Math.max(policy.minDelayNanos, window[Math.max(0, index)]);
+    }
+
+    HedgeStats stats() {
+        return new HedgeStats(requests.get(), hedges.get(), hedgeWins.get(), delayNanos());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * RequestMetrics
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms and counters of a fetcher, one per operation, data lake
+ * and status class. Recording is lock-free: the only synchronization is the
+ * first lookup of a new series.
+ */
+class RequestMetrics {
+    private static final String[] STATUS_CLASSES = { "0xx", "1xx", "2xx", "3xx", "4xx", "5xx" };
+    private final ConcurrentHashMap<Key, LatencyHistogram> series = new ConcurrentHashMap<Key, LatencyHistogram>();
+
+    private static final class Key {
+        final String operation;
+        final String dataLake;
+        final String statusClass;
+
+        Key(String operation, String dataLake, String statusClass) {
+            this.operation = operation;
+            this.dataLake = dataLake;
+            this.statusClass = statusClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return operation.equals(k.operation) && statusClass.equals(k.statusClass)
+                    && (dataLake == null ? k.dataLake == null : dataLake.equals(k.dataLake));
+        }
+
+        @Override
+        public int hashCode() {
+            return (operation.hashCode() * 31 + statusClass.hashCode()) * 31
+                    + (dataLake == null ? 0 : dataLake.hashCode());
+        }
+    }
+
+    /**
+     * Query Service operation name of a request.
+     * 
+     * @param method request method
+     * @param path   request path (without query string)
+     * @return the operation name
+     */
+    static String operation(String method, String path) {
+        return operation(method, path, false);
+    }
+
+    /**
+     * Query Service operation name of a request. Job results long polls get
+     * their own series (awaitJobResults) so the time the server holds them does
+     * not hide in the page fetch latency.
+     * 
+     * @param method request method
+     * @param path   request path (without query string)
+     * @param held   true if the server may hold the request on purpose
+     * @return the operation name
+     */
+    static String operation(String method, String path, boolean held) {
+        if (path.startsWith(Constants.EP_QUERY)) {
+            String resource = path.substring(Constants.EP_QUERY.length());
+            if (resource.startsWith("jobResults/"))
+                return held ? "awaitJobResults" : "getJobResults";
+            if (resource.equals("jobs"))
+                return method.equals("POST") ? "createJob" : "getJobsList";
+            if (resource.startsWith("jobs/"))
+                return method.equals("DELETE") ? "deleteJob" : "getJobStatus";
+        }
+        return method + " " + path;
+    }
+
+    static String statusClass(int statusCode) {
+        int index = statusCode / 100;
+        return (index >= 0 && index < STATUS_CLASSES.length) ? STATUS_CLASSES[index] : statusCode / 100 + "xx";
+    }
+
+    /**
+     * Records a request.
+     * 
+     * @param operation  operation name
+     * @param dataLake   data lake identifier (null for the default one)
+     * @param statusCode response status code (-1 for I/O errors)
+     * @param nanos      request latency
+     * @param bytes      response body bytes received
+     */
+    void record(String operation, String dataLake, int statusCode, long nanos, long bytes) {
+        Key key = new Key(operation, dataLake, (statusCode < 0) ? EndpointMetrics.ERROR : statusClass(statusCode));
+        LatencyHistogram histogram = series.get(key);
+        if (histogram == null)
+            histogram = series.computeIfAbsent(key, k -> new LatencyHistogram());
+        histogram.record(nanos, bytes);
+    }
+
+    List<EndpointMetrics> snapshot() {
+        List<EndpointMetrics> metrics = new ArrayList<EndpointMetrics>(series.size());
+        series.forEach((key, histogram) -> metrics
+                .add(histogram.snapshot(key.operation, key.dataLake, key.statusClass)));
+        return metrics;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * RetryBudget
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by the requests of a fetcher. Each request deposits a
+ * fraction of a token and each retry withdraws a whole one. Tokens are kept in
+ * thousandths to use integer atomics.
+ */
+class RetryBudget {
+    private static final long UNIT = 1000;
+    static final long RESERVE = 10;
+    static final long CAPACITY = 100;
+    private final AtomicLong tokens = new AtomicLong(RESERVE * UNIT);
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    void deposit(double ratio) {
+        long amount = (long) (ratio * UNIT);
+        tokens.accumulateAndGet(amount, (current, add) -> Math.min(CAPACITY * UNIT, current + add));
+    }
+
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < UNIT) {
+                exhausted.incrementAndGet();
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - UNIT));
+        retries.incrementAndGet();
+        return true;
+    }
+
+    long retries() {
+        return retries.get();
+    }
+
+    long exhausted() {
+        return exhausted.get();
+    }
+}
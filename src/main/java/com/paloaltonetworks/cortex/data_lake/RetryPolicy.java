@@ -0,0 +1,130 @@
+/**
+ * RetryPolicy
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy for idempotent (GET and DELETE) requests.
+ * 
+ * Requests are retried on I/O errors (including timeouts) and on 429, 502, 503
+ * and 504 responses. The delay before attempt n+1 is a random value between 0
+ * and {@code min(maxDelay, baseDelay * 2^(n-1))} (exponential backoff with full
+ * jitter) unless the response carries a {@code Retry-After} header, that is
+ * honored as the minimum delay. Responses asking to wait longer than maxDelay
+ * are not retried.
+ * 
+ * Retries are also limited by a budget shared by all requests of a fetcher:
+ * every request earns budgetRatio retries (on top of a small reserve), so
+ * retries can't multiply the load of an already failing service.
+ */
+public class RetryPolicy {
+    /**
+     * Four attempts, 100 ms base delay, 10 s max delay, 10% retry budget.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(4, Duration.ofMillis(100), Duration.ofSeconds(10), 0.1);
+    final int maxAttempts;
+    final long baseDelay;
+    final long maxDelay;
+    final double budgetRatio;
+
+    /**
+     * Creates a retry policy.
+     * 
+     * @param maxAttempts maximum number of attempts (including the first one)
+     * @param baseDelay   backoff upper bound for the first retry
+     * @param maxDelay    backoff upper bound
+     * @param budgetRatio retries earned by every request (i.e. 0.1 allows one
+     *                    retry every ten requests once the reserve is spent)
+     * @throws IllegalArgumentException if maxAttempts is lower than 1 or any other
+     *                                  value is negative
+     */
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, double budgetRatio)
+            throws IllegalArgumentException {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("'maxAttempts' must be at least 1");
+        if (baseDelay.isNegative() || maxDelay.isNegative() || budgetRatio < 0)
+            throw new IllegalArgumentException("delays and budget ratio can't be negative");
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay.toMillis();
+        this.maxDelay = maxDelay.toMillis();
+        this.budgetRatio = budgetRatio;
+    }
+
+    static boolean retryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Full jitter exponential backoff.
+     * 
+     * @param attempt number of the attempt that just failed (starting at 1)
+     * @return milliseconds to wait before the next attempt
+     */
+    long backoff(int attempt) {
+        long cap = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        return (cap <= 0) ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Delay before retrying a response.
+     * 
+     * @param attempt    number of the attempt that just failed (starting at 1)
+     * @param statusCode response status code
+     * @param headers    response headers
+     * @param now        current epoch millis
+     * @return milliseconds to wait or -1 if the response must not be retried
+     */
+    long delay(int attempt, int statusCode, HttpHeaders headers, long now) {
+        if (attempt >= maxAttempts || !retryableStatus(statusCode))
+            return -1;
+        long retryAfter = retryAfter(headers, now);
+        if (retryAfter > maxDelay)
+            return -1;
+        return Math.max(retryAfter, backoff(attempt));
+    }
+
+    /**
+     * Parses the Retry-After header (either delta seconds or a HTTP date).
+     * 
+     * @param headers response headers
+     * @param now     current epoch millis
+     * @return milliseconds to wait or -1 if the header is missing or invalid
+     */
+    static long retryAfter(HttpHeaders headers, long now) {
+        String value = headers.firstValue("retry-after").orElse(null);
+        if (value == null)
+            return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, at - now);
+            } catch (DateTimeParseException dateError) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * SingleFlight
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls: while a call for a key is in flight,
+ * other callers with the same key wait for (and share) its result instead of
+ * issuing their own.
+ * 
+ * Each asynchronous caller gets its own view of the shared result, so
+ * cancelling it does not affect the others. The underlying call is cancelled
+ * once every waiter has left. A caller that joins a call waits for it no longer
+ * than its own deadline, and does not share the failures that only concern the
+ * leading caller (its timeout, cancellation or interruption): it issues the
+ * call again instead.
+ */
+class SingleFlight<T> {
+    /**
+     * Blocking call.
+     */
+    @FunctionalInterface
+    interface Call<T> {
+        T call() throws IOException, InterruptedException;
+    }
+
+    private static final class Flight<T> {
+        final String key;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicInteger waiters = new AtomicInteger();
+        volatile CompletableFuture<T> call = null;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Flight<T>> flights = new ConcurrentHashMap<String, Flight<T>>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs a blocking call unless an identical one is already in flight.
+     * 
+     * @param key  call identity
+     * @param call the call
+     * @return the (possibly shared) result
+     * @throws IOException          if the call fails
+     * @throws InterruptedException if interrupted while running or waiting
+     */
+    T run(String key, Call<T> call) throws IOException, InterruptedException {
+        return run(key, null, call);
+    }
+
+    /**
+     * Runs a blocking call unless an identical one is already in flight.
+     * 
+     * @param key      call identity
+     * @param deadline deadline of the caller (may be null)
+     * @param call     the call
+     * @return the (possibly shared) result
+     * @throws IOException          if the call fails or the deadline expires
+     *                              while waiting for an identical call
+     * @throws InterruptedException if interrupted while running or waiting
+     */
+    T run(String key, Deadline deadline, Call<T> call) throws IOException, InterruptedException {
+        while (true) {
+            Flight<T> flight = new Flight<T>(key);
+            Flight<T> existing = flights.putIfAbsent(key, flight);
+            if (existing == null)
+                return lead(flight, call);
+            coalesced.incrementAndGet();
+            try {
+                if (deadline == null)
+                    return existing.result.get();
+                return existing.result.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw deadline.exceeded();
+            } catch (CancellationException e) {
+                // the leader gave up, try again (most likely leading the next flight)
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!shared(cause))
+                    continue;
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) cause).getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+            }
+        }
+    }
+
+    private T lead(Flight<T> flight, Call<T> call) throws IOException, InterruptedException {
+        T value;
+        try {
+            value = call.call();
+        } catch (Throwable e) {
+            // removed first so that waiters issuing the call again do not find it
+            flights.remove(flight.key, flight);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        flights.remove(flight.key, flight);
+        flight.result.complete(value);
+        return value;
+    }
+
+    /**
+     * Issues an asynchronous call unless an identical one is already in flight.
+     * 
+     * @param key  call identity
+     * @param call the call
+     * @return a view of the (possibly shared) result, failed if the call throws
+     */
+    CompletableFuture<T> submit(String key, Supplier<CompletableFuture<T>> call) {
+        return submit(key, null, call);
+    }
+
+    /**
+     * Issues an asynchronous call unless an identical one is already in flight.
+     * 
+     * @param key      call identity
+     * @param deadline deadline of the caller (may be null)
+     * @param call     the call
+     * @return a view of the (possibly shared) result, failed if the call throws
+     */
+    CompletableFuture<T> submit(String key, Deadline deadline, Supplier<CompletableFuture<T>> call) {
+        if (deadline != null && deadline.expired())
+            return CompletableFuture.failedFuture(deadline.exceeded());
+        Flight<T> flight = new Flight<T>(key);
+        Flight<T> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return join(existing, deadline, call);
+        }
+        CompletableFuture<T> view = view(flight);
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException | Error e) {
+            // fail the waiters that already joined instead of leaving them hanging
+            flights.remove(key, flight);
+            flight.result.completeExceptionally(e);
+            return view;
+        }
+        flight.call = future;
+        if (flight.waiters.get() == 0)
+            future.cancel(true);
+        future.whenComplete((r, e) -> {
+            flights.remove(key, flight);
+            if (e == null)
+                flight.result.complete(r);
+            else
+                flight.result.completeExceptionally(Tools.unwrap(e));
+        });
+        return view;
+    }
+
+    /**
+     * Waits for an in-flight call on behalf of a caller that did not issue it.
+     * The caller stops waiting once its deadline expires and issues the call
+     * again if it fails for a reason that only concerns the leading caller.
+     */
+    private CompletableFuture<T> join(Flight<T> flight, Deadline deadline, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        CompletableFuture<T> view = view(flight);
+        AtomicReference<CompletableFuture<T>> reissued = new AtomicReference<CompletableFuture<T>>();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                view.cancel(true);
+                Tools.cancel(reissued.get());
+            }
+        });
+        if (deadline != null)
+            CompletableFuture.delayedExecutor(deadline.remainingMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> view.completeExceptionally(deadline.exceeded()));
+        view.whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(r);
+                return;
+            }
+            Throwable error = Tools.unwrap(e);
+            if (view.isCancelled() || !flight.result.isCompletedExceptionally() || shared(error)) {
+                result.completeExceptionally(error);
+                return;
+            }
+            CompletableFuture<T> next = submit(flight.key, deadline, call);
+            reissued.set(next);
+            if (result.isCancelled())
+                next.cancel(true);
+            next.whenComplete((nr, ne) -> {
+                if (ne == null)
+                    result.complete(nr);
+                else
+                    result.completeExceptionally(Tools.unwrap(ne));
+            });
+        });
+        return result;
+    }
+
+    /**
+     * View of a flight result. A waiter leaves the flight when its view is
+     * completed (cancelled or expired) before the flight.
+     */
+    private CompletableFuture<T> view(Flight<T> flight) {
+        flight.waiters.incrementAndGet();
+        CompletableFuture<T> view = flight.result.copy();
+        view.whenComplete((r, e) -> {
+            if ((view.isCancelled() || !flight.result.isDone()) && flight.waiters.decrementAndGet() == 0) {
+                flights.remove(flight.key, flight);
+                Tools.cancel(flight.call);
+            }
+        });
+        return view;
+    }
+
+    /**
+     * Tells whether a failure of the leading caller is shared with the callers
+     * that joined its call. Timeouts, cancellations and interruptions depend on
+     * the leading caller only.
+     */
+    private static boolean shared(Throwable error) {
+        return !(error instanceof HttpTimeoutException || error instanceof CancellationException
+                || error instanceof InterruptedException);
+    }
+
+    /**
+     * Number of calls that joined an in-flight identical call.
+     * 
+     * @return coalesced calls count
+     */
+    long coalesced() {
+        return coalesced.get();
+    }
+}
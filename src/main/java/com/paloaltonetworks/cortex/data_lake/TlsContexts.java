@@ -0,0 +1,200 @@
+/**
+ * TlsContexts
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Process wide cache of the {@link SSLContext} used by the fetchers. Fetchers
+ * created with the same keystore (or the same trust settings) share a single
+ * context and, with it, the TLS session cache, so new connections can resume
+ * sessions opened by other instances and the PKCS12 container is read and
+ * decrypted only once.
+ * 
+ * Keystore contexts are keyed by the canonical path of the container. The
+ * file size, modification time and a digest of the password are checked on
+ * every lookup, so a rotated certificate is loaded by the next fetcher created.
+ * Concurrent lookups of the same key wait for a single load.
+ */
+class TlsContexts {
+    private static Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+    private static final ConcurrentHashMap<String, Cached> contexts = new ConcurrentHashMap<String, Cached>();
+    private static final String TRUSTED = "trust:default";
+    private static final String UNSECURE = "trust:any";
+
+    private static class Cached {
+        final String fingerprint;
+        final FutureTask<SSLContext> task;
+
+        Cached(String fingerprint, FutureTask<SSLContext> task) {
+            this.fingerprint = fingerprint;
+            this.task = task;
+        }
+    }
+
+    private interface Loader {
+        SSLContext load() throws Exception;
+    }
+
+    private TlsContexts() {
+    }
+
+    /**
+     * Context presenting the client certificate found in a PKCS12 container.
+     * 
+     * @param keystore filename containing the client certificate
+     * @param password password to decrypt the client certificate (null for no
+     *                 encryption)
+     * @return a shared context
+     */
+    static SSLContext forKeyStore(String keystore, char[] password) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, IOException, UnrecoverableKeyException,
+            KeyManagementException {
+        File file = new File(keystore).getCanonicalFile();
+        String fingerprint = file.lastModified() + ":" + file.length() + ":" + digest(password);
+        char[] secret = (password == null) ? null : password.clone();
+        try {
+            return get("keystore:" + file.getPath(), fingerprint, () -> {
+                logger.info("Loading client certificate from " + file);
+                KeyStore ks = KeyStore.getInstance(file, secret);
+                KeyManagerFactory kmf = KeyManagerFactory.getInstance("PKIX");
+                kmf.init(ks, secret);
+                SSLContext sc = SSLContext.getInstance("TLS");
+                // TODO allow trust manager and random generator to be provided in a constructor
+                // overflow
+                sc.init(kmf.getKeyManagers(), null, null);
+                return sc;
+            });
+        } finally {
+            if (secret != null)
+                Arrays.fill(secret, '\0');
+        }
+    }
+
+    /**
+     * Context without client certificate.
+     * 
+     * @param unsecure to trust any server certificate
+     * @return a shared context
+     */
+    static SSLContext forTrust(boolean unsecure) throws NoSuchAlgorithmException, KeyManagementException {
+        try {
+            return get(unsecure ? UNSECURE : TRUSTED, "", () -> {
+                SSLContext sc = SSLContext.getInstance("TLS");
+                if (unsecure) {
+                    TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+                        public X509Certificate[] getAcceptedIssuers() {
+                            return null;
+                        }
+
+                        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                        }
+
+                        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                        }
+                    } };
+                    sc.init(null, trustAllCerts, null);
+                } else {
+                    sc.init(null, null, null);
+                }
+                return sc;
+            });
+        } catch (KeyStoreException | CertificateException | IOException | UnrecoverableKeyException e) {
+            throw new KeyManagementException(e);
+        }
+    }
+
+    /**
+     * Drops every cached context. Fetchers already created keep using theirs.
+     */
+    static void clear() {
+        contexts.clear();
+    }
+
+    private static SSLContext get(String key, String fingerprint, Loader loader) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, IOException, UnrecoverableKeyException,
+            KeyManagementException {
+        Cached cached = contexts.compute(key, (k, current) -> (current != null
+                && current.fingerprint.equals(fingerprint)) ? current
+                        : new Cached(fingerprint, new FutureTask<SSLContext>(loader::load)));
+        cached.task.run();
+        try {
+            return cached.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // failed loads are not cached
+            contexts.remove(key, cached);
+            Throwable cause = e.getCause();
+            if (cause instanceof KeyStoreException)
+                throw (KeyStoreException) cause;
+            if (cause instanceof NoSuchAlgorithmException)
+                throw (NoSuchAlgorithmException) cause;
+            if (cause instanceof CertificateException)
+                throw (CertificateException) cause;
+            if (cause instanceof UnrecoverableKeyException)
+                throw (UnrecoverableKeyException) cause;
+            if (cause instanceof KeyManagementException)
+                throw (KeyManagementException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new KeyManagementException(cause);
+        }
+    }
+
+    /**
+     * Password digest, so the cache never keeps the password itself.
+     */
+    private static String digest(char[] password) throws NoSuchAlgorithmException {
+        if (password == null)
+            return "-";
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(bytes);
+        if (bytes.hasArray())
+            Arrays.fill(bytes.array(), (byte) 0);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
@@ -18,12 +18,34 @@
 package com.paloaltonetworks.cortex.data_lake;
 
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Map;
 import static java.net.URLEncoder.encode;
+import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonReader;
 
 class Tools {
+    /**
+     * Milliseconds ahead of a token expiration at which it should be refreshed.
+     */
+    static final long TOKEN_REFRESH_MARGIN = 60_000;
+    /**
+     * Milliseconds between checks for tokens whose expiration is unknown.
+     */
+    static final long TOKEN_RECHECK_INTERVAL = 30_000;
+    private static final long TOKEN_MIN_RECHECK = 1_000;
+
     static String querify(Map<String, String> params) {
         ArrayList<String> paramList = new ArrayList<String>(params.size());
         params.forEach((k, v) -> {
@@ -44,4 +66,111 @@ class Tools {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Extracts the expiration ('exp' claim) of a JWT token.
+     * 
+     * @param token bearer token
+     * @return expiration as epoch millis or -1 if the token is not a JWT or it
+     *         does not carry an expiration claim
+     */
+    static long jwtExpiration(String token) {
+        int first = (token == null) ? -1 : token.indexOf('.');
+        int second = (first < 0) ? -1 : token.indexOf('.', first + 1);
+        if (second < 0)
+            return -1;
+        try (JsonReader reader = Json.createReader(
+                new ByteArrayInputStream(Base64.getUrlDecoder().decode(token.substring(first + 1, second))))) {
+            JsonNumber exp = reader.readObject().getJsonNumber("exp");
+            return (exp == null) ? -1 : exp.longValue() * 1000;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Computes when the credential provider should be asked for a fresher token.
+     * 
+     * @param token current bearer token
+     * @param now   current epoch millis
+     * @return epoch millis of the next refresh check
+     */
+    static long tokenRefreshAt(String token, long now) {
+        long exp = jwtExpiration(token);
+        if (exp < 0)
+            return now + TOKEN_RECHECK_INTERVAL;
+        if (exp - TOKEN_REFRESH_MARGIN > now)
+            return exp - TOKEN_REFRESH_MARGIN;
+        // already inside the refresh margin: keep asking, but not on every request
+        return now + Math.min(TOKEN_RECHECK_INTERVAL, Math.max(TOKEN_MIN_RECHECK, (exp - now) / 2));
+    }
+
+    /**
+     * Creates a factory of named daemon threads so background tasks never
+     * prevent the JVM from exiting.
+     * 
+     * @param name thread name prefix
+     * @return the thread factory
+     */
+    static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()} at runtime so
+     * the library keeps its Java 11 baseline.
+     * 
+     * @return a virtual thread per task executor
+     * @throws UnsupportedOperationException if the JVM does not support virtual
+     *                                       threads
+     */
+    static ExecutorService virtualThreadExecutor() throws UnsupportedOperationException {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or newer");
+        }
+    }
+
+    /**
+     * Strips the {@link CompletionException} wrapper added by the
+     * CompletableFuture stages.
+     * 
+     * @param e exception (may be null)
+     * @return the wrapped cause or the exception itself
+     */
+    static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    }
+
+    /**
+     * Cancels a source future when a future derived from it is cancelled, as
+     * CompletableFuture stages do not propagate cancellation upstream.
+     * 
+     * @param dependent future derived from source
+     * @param source    future to cancel
+     * @return the dependent future
+     */
+    static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, Future<?> source) {
+        dependent.whenComplete((r, e) -> {
+            if (dependent.isCancelled())
+                source.cancel(true);
+        });
+        return dependent;
+    }
+
+    /**
+     * Cancels a future, if any.
+     * 
+     * @param future future to cancel (may be null)
+     */
+    static void cancel(Future<?> future) {
+        if (future != null)
+            future.cancel(true);
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * TransferStats
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Snapshot of the response body transfer counters of a fetcher. The
+ * difference between {@link #decodedBytes} and {@link #wireBytes} is the
+ * bandwidth saved by response compression.
+ */
+public class TransferStats {
+    /**
+     * Number of response bodies decoded
+     */
+    public final long responses;
+    /**
+     * Number of response bodies received with a gzip or deflate encoding
+     */
+    public final long compressedResponses;
+    /**
+     * Response body bytes received from the network (before decompression)
+     */
+    public final long wireBytes;
+    /**
+     * Response body bytes fed to the JSON parser (after decompression)
+     */
+    public final long decodedBytes;
+
+    TransferStats(long responses, long compressedResponses, long wireBytes, long decodedBytes) {
+        this.responses = responses;
+        this.compressedResponses = compressedResponses;
+        this.wireBytes = wireBytes;
+        this.decodedBytes = decodedBytes;
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * Transport
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import javax.json.JsonStructure;
+
+/**
+ * Engine used by the service wrappers to talk to the Cortex API.
+ * 
+ * {@link Http2Fetch} is the network implementation (JDK HttpClient over
+ * HTTP/2). {@link LoopbackTransport} answers in memory from canned or generated
+ * responses, to test or benchmark the parsing and paging code without a
+ * network.
+ * 
+ * Paths are relative to the entry point of the credential tuple (i.e.
+ * {@code /query/v2/jobs}) and may carry a query string. Optional headers are
+ * provided as name and value pairs and replace any default value. Requests
+ * bound to a {@link Deadline} fail with a
+ * {@link java.net.http.HttpTimeoutException} once it expires and are never
+ * given (or retried with) more time than it has left.
+ * 
+ * The tuning and statistics methods are optional: their default
+ * implementations ignore the settings and report empty statistics.
+ */
+public interface Transport extends AutoCloseable {
+    /**
+     * Timeout of each request. Server side waits ({@code maxWait}) are kept
+     * shorter than it so the server answers before the request times out.
+     * Defaults to none.
+     * 
+     * @return the request timeout or null if requests don't time out
+     */
+    default Duration requestTimeout() {
+        return null;
+    }
+
+    /**
+     * Decodes the responses of the asynchronous requests in the provided
+     * executor. Transports that decode in the calling thread ignore it.
+     * 
+     * @param parseExecutor executor for response decoding (null to restore the
+     *                      default)
+     */
+    default void setParseExecutor(Executor parseExecutor) {
+    }
+
+    /**
+     * Hedges the requests issued with the hedged GET methods. Ignored by the
+     * transports that do not hedge.
+     * 
+     * @param hedgePolicy policy to use (null disables hedging)
+     */
+    default void setHedgePolicy(HedgePolicy hedgePolicy) {
+    }
+
+    /**
+     * Hedged request counters.
+     * 
+     * @return a counters snapshot or null if hedging is not enabled (or not
+     *         supported)
+     */
+    default HedgeStats hedgeStats() {
+        return null;
+    }
+
+    /**
+     * Enables fail-fast circuit breakers. Ignored by the transports without
+     * circuit breakers.
+     * 
+     * @param circuitBreakerPolicy thresholds (null disables the circuit breakers)
+     */
+    default void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+    }
+
+    /**
+     * Registers a listener for circuit breaker state changes. It is never
+     * called by the transports without circuit breakers.
+     * 
+     * @param listener state change listener
+     */
+    default void addCircuitBreakerListener(Consumer<CircuitBreakerEvent> listener) {
+    }
+
+    /**
+     * Opens the connections and checks the credentials ahead of the first
+     * request. Transports without connections have nothing to warm up.
+     * 
+     * @param tuples additional credential tuples to warm up
+     * @return a future with the outcome for each credential (empty by default)
+     */
+    default CompletableFuture<List<WarmUpResult>> warmUp(CredentialTuple... tuples) {
+        return CompletableFuture.completedFuture(List.of());
+    }
+
+    /**
+     * Response body transfer counters.
+     * 
+     * @return a counters snapshot (all zero by default)
+     */
+    default TransferStats transferStats() {
+        return new TransferStats(0, 0, 0, 0);
+    }
+
+    /**
+     * Per operation latency histograms and counters.
+     * 
+     * @return a metrics snapshot (empty by default)
+     */
+    default List<EndpointMetrics> metrics() {
+        return List.of();
+    }
+
+    /**
+     * GET request.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure (including an
+     *                              expired deadline)
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    CortexApiResult<JsonStructure> get(String path, CredentialTuple ct, Deadline deadline, String... headers)
+            throws IOException, InterruptedException, Http2FetchException, URISyntaxException;
+
+    /**
+     * GET request without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    default CortexApiResult<JsonStructure> get(String path, CredentialTuple ct, String... headers)
+            throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        return get(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * Asynchronous GET request.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws Http2FetchException, URISyntaxException;
+
+    /**
+     * Asynchronous GET request without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    default CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct,
+            String... headers) throws Http2FetchException, URISyntaxException {
+        return getAsync(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * GET request the transport may hedge (job results pages). Defaults to
+     * {@link #get(String, CredentialTuple, Deadline, String...)}.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure (including an
+     *                              expired deadline)
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    default CortexApiResult<JsonStructure> getHedged(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        return get(path, ct, deadline, headers);
+    }
+
+    /**
+     * GET request the transport may hedge, without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    default CortexApiResult<JsonStructure> getHedged(String path, CredentialTuple ct, String... headers)
+            throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        return getHedged(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * Asynchronous GET request the transport may hedge (job results pages).
+     * Defaults to {@link #getAsync(String, CredentialTuple, Deadline, String...)}.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    default CompletableFuture<CortexApiResult<JsonStructure>> getHedgedAsync(String path, CredentialTuple ct,
+            Deadline deadline, String... headers) throws Http2FetchException, URISyntaxException {
+        return getAsync(path, ct, deadline, headers);
+    }
+
+    /**
+     * Asynchronous GET request the transport may hedge, without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    default CompletableFuture<CortexApiResult<JsonStructure>> getHedgedAsync(String path, CredentialTuple ct,
+            String... headers) throws Http2FetchException, URISyntaxException {
+        return getHedgedAsync(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * POST request.
+     * 
+     * @param path      request path
+     * @param ct        credential tuple (null for the default one)
+     * @param deadline  deadline of the operation (null for none)
+     * @param publisher request body
+     * @param headers   optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure (including an
+     *                              expired deadline)
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, Deadline deadline, BodyPublisher publisher,
+            String... headers) throws IOException, InterruptedException, Http2FetchException, URISyntaxException;
+
+    /**
+     * POST request without a deadline.
+     * 
+     * @param path      request path
+     * @param ct        credential tuple (null for the default one)
+     * @param publisher request body
+     * @param headers   optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    default CortexApiResult<JsonStructure> post(String path, CredentialTuple ct, BodyPublisher publisher,
+            String... headers) throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        return post(path, ct, (Deadline) null, publisher, headers);
+    }
+
+    /**
+     * Asynchronous POST request.
+     * 
+     * @param path      request path
+     * @param ct        credential tuple (null for the default one)
+     * @param deadline  deadline of the operation (null for none)
+     * @param publisher request body
+     * @param headers   optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct, Deadline deadline,
+            BodyPublisher publisher, String... headers) throws Http2FetchException, URISyntaxException;
+
+    /**
+     * Asynchronous POST request without a deadline.
+     * 
+     * @param path      request path
+     * @param ct        credential tuple (null for the default one)
+     * @param publisher request body
+     * @param headers   optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    default CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
+            BodyPublisher publisher, String... headers) throws Http2FetchException, URISyntaxException {
+        return postAsync(path, ct, (Deadline) null, publisher, headers);
+    }
+
+    /**
+     * DELETE request.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure (including an
+     *                              expired deadline)
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct, Deadline deadline, String... headers)
+            throws IOException, InterruptedException, Http2FetchException, URISyntaxException;
+
+    /**
+     * DELETE request without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return the decoded response
+     * @throws IOException          request or response failure
+     * @throws InterruptedException interrupted while waiting for the response
+     * @throws Http2FetchException  no credential or entry point available
+     * @throws URISyntaxException   invalid path
+     */
+    default CortexApiResult<JsonStructure> delete(String path, CredentialTuple ct, String... headers)
+            throws IOException, InterruptedException, Http2FetchException, URISyntaxException {
+        return delete(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * Asynchronous DELETE request.
+     * 
+     * @param path     request path
+     * @param ct       credential tuple (null for the default one)
+     * @param deadline deadline of the operation (null for none)
+     * @param headers  optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct, Deadline deadline,
+            String... headers) throws Http2FetchException, URISyntaxException;
+
+    /**
+     * Asynchronous DELETE request without a deadline.
+     * 
+     * @param path    request path
+     * @param ct      credential tuple (null for the default one)
+     * @param headers optional name and value pairs (may be null)
+     * @return a future with the decoded response
+     * @throws Http2FetchException no credential or entry point available
+     * @throws URISyntaxException  invalid path
+     */
+    default CompletableFuture<CortexApiResult<JsonStructure>> deleteAsync(String path, CredentialTuple ct,
+            String... headers) throws Http2FetchException, URISyntaxException {
+        return deleteAsync(path, ct, (Deadline) null, headers);
+    }
+
+    /**
+     * Releases the transport resources.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,71 @@
+/**
+ * WarmUpResult
+ * 
+ * Copyright 2015-2020 Palo Alto Networks, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.paloaltonetworks.cortex.data_lake;
+
+/**
+ * Outcome of warming up the connections to an entry point with a given
+ * credential.
+ */
+public class WarmUpResult {
+    /**
+     * Data Lake identifier (null for the default credential or entry point)
+     */
+    public final String dataLake;
+    /**
+     * Entry point (fqdn) that has been contacted (null if the credential
+     * provider failed)
+     */
+    public final String entryPoint;
+    /**
+     * Number of connections that answered the probe request
+     */
+    public final int connections;
+    /**
+     * Status code of the probe request (-1 if no connection answered)
+     */
+    public final int statusCode;
+    /**
+     * Time taken to get the credential and prime every connection
+     * (nanoseconds)
+     */
+    public final long latencyNanos;
+    /**
+     * First error found (null if none)
+     */
+    public final Throwable error;
+
+    WarmUpResult(String dataLake, String entryPoint, int connections, int statusCode, long latencyNanos,
+            Throwable error) {
+        this.dataLake = dataLake;
+        this.entryPoint = entryPoint;
+        this.connections = connections;
+        this.statusCode = statusCode;
+        this.latencyNanos = latencyNanos;
+        this.error = error;
+    }
+
+    /**
+     * Whether every connection was established and the credential was accepted
+     * by the entry point.
+     * 
+     * @return true if the warm up succeeded
+     */
+    public boolean ok() {
+        return error == null && statusCode != 401 && statusCode != 403;
+    }
+}
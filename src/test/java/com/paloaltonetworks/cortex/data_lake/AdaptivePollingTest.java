@@ -0,0 +1,43 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import java.io.StringReader;
+import java.time.Duration;
+import javax.json.Json;
+
+import org.junit.Test;
+
+public class AdaptivePollingTest {
+    private final AdaptivePolling polling = new AdaptivePolling(Duration.ofMillis(100), Duration.ofSeconds(5));
+
+    private static QueryJobDetail detail(String json) {
+        return QueryJobDetail.parse(Json.createReader(new StringReader(
+                "{\"jobId\":\"job1\",\"state\":\"RUNNING\",\"submitTime\":10" + json + "}")).readObject());
+    }
+
+    @Test
+    public void etaTest() {
+        assertEquals(1200, polling.delay(1, detail(",\"statistics\":{\"runTimeMs\":800,\"etaMs\":1200}")));
+        // capped to maxDelay
+        assertEquals(5000, polling.delay(1, detail(",\"statistics\":{\"etaMs\":60000}")));
+        assertEquals(0, polling.delay(3, detail(",\"statistics\":{\"etaMs\":0}")));
+    }
+
+    @Test
+    public void progressRateTest() {
+        // 25% done in 1 s: 3 s to go
+        assertEquals(3000, polling.delay(1,
+                detail(",\"progress\":{\"completionPct\":25},\"statistics\":{\"runTimeMs\":1000}")));
+        // no rate without progress
+        assertEquals(100, polling.delay(1,
+                detail(",\"progress\":{\"completionPct\":0},\"statistics\":{\"runTimeMs\":1000}")));
+    }
+
+    @Test
+    public void backoffTest() {
+        assertEquals(100, polling.delay(1, null));
+        assertEquals(200, polling.delay(2, detail("")));
+        assertEquals(800, polling.delay(4, null));
+        assertEquals(5000, polling.delay(100, null));
+    }
+}
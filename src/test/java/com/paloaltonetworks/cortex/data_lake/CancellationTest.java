@@ -0,0 +1,113 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.json.Json;
+import javax.json.JsonStructure;
+
+import org.junit.Test;
+
+public class CancellationTest {
+    private final String jobsPath = Constants.EP_QUERY + "jobs";
+
+    /**
+     * Loopback transport that keeps the futures it returns.
+     */
+    private static class RecordingTransport extends LoopbackTransport {
+        final List<CompletableFuture<CortexApiResult<JsonStructure>>> futures =
+                new CopyOnWriteArrayList<CompletableFuture<CortexApiResult<JsonStructure>>>();
+
+        @Override
+        public CompletableFuture<CortexApiResult<JsonStructure>> getAsync(String path, CredentialTuple ct,
+                Deadline deadline, String... headers) {
+            var future = super.getAsync(path, ct, deadline, headers);
+            futures.add(future);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<CortexApiResult<JsonStructure>> postAsync(String path, CredentialTuple ct,
+                Deadline deadline, BodyPublisher publisher, String... headers) {
+            var future = super.postAsync(path, ct, deadline, publisher, headers);
+            futures.add(future);
+            return future;
+        }
+    }
+
+    @Test
+    public void cancelPendingCreateJobTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        List<String> deletedJobs = new CopyOnWriteArrayList<String>();
+        RecordingTransport transport = new RecordingTransport();
+        transport.route("POST", jobsPath, request -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return LoopbackTransport.Response.json(201, "{\"jobId\":\"job1\",\"uri\":\"/jobs/job1\"}");
+        }).route("DELETE", jobsPath + "/", request -> {
+            deletedJobs.add(request.path.substring(jobsPath.length() + 1));
+            deleted.countDown();
+            return LoopbackTransport.Response.json(200, "{}");
+        });
+        try {
+            QueryService qs = new QueryService(transport, null);
+            CompletableFuture<QueryJob> job = qs.createJobAsync("job1", new QueryParams("SELECT 1"), null);
+            job.cancel(true);
+            assertTrue(deleted.await(10, TimeUnit.SECONDS));
+            assertEquals(List.of("job1"), deletedJobs);
+            assertTrue(transport.futures.get(0).isCancelled());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void cancelCompletedCreateJobTest() throws Exception {
+        List<String> deletedJobs = new CopyOnWriteArrayList<String>();
+        RecordingTransport transport = new RecordingTransport();
+        transport.route("POST", jobsPath, LoopbackTransport.Response.json(201,
+                Json.createObjectBuilder().add("jobId", "generated").add("uri", "/jobs/generated").build()))
+                .route("DELETE", jobsPath + "/", request -> {
+                    deletedJobs.add(request.path.substring(jobsPath.length() + 1));
+                    return LoopbackTransport.Response.json(200, "{}");
+                });
+        QueryService qs = new QueryService(transport, null);
+        CompletableFuture<QueryJob> job = qs.createJobAsync(null, new QueryParams("SELECT 1"), null);
+        assertEquals("generated", job.join().jobId);
+        // the caller owns a delivered job: a late cancel is a no-op
+        assertFalse(job.cancel(true));
+        assertTrue(deletedJobs.isEmpty());
+    }
+
+    @Test
+    public void cancelPageFetchTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTransport transport = new RecordingTransport();
+        transport.route("GET", Constants.EP_QUERY + "jobResults/", request -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return LoopbackTransport.error(404, "gone");
+        });
+        try {
+            QueryService qs = new QueryService(transport, null);
+            CompletableFuture<QueryJobResult> page = qs.getJobResultsAsync("job1", 100, null, null);
+            page.cancel(true);
+            assertTrue(transport.futures.get(0).isCancelled());
+        } finally {
+            release.countDown();
+        }
+    }
+}
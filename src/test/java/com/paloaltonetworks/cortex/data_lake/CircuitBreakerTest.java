@@ -0,0 +1,46 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.paloaltonetworks.cortex.data_lake.CircuitBreakerEvent.State;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void stateTest() throws InterruptedException {
+        List<CircuitBreakerEvent> events = new ArrayList<CircuitBreakerEvent>();
+        CircuitBreaker breaker = new CircuitBreaker(Constants.USFQDN, "datalake1",
+                new CircuitBreakerPolicy(2, Duration.ofMillis(50), 1), events::add);
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(State.OPEN, breaker.state());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(State.CLOSED, breaker.state());
+
+        assertEquals(5, events.size());
+        assertEquals(State.CLOSED, events.get(0).previous);
+        assertEquals(State.OPEN, events.get(0).state);
+        assertEquals("datalake1", events.get(0).dataLake);
+        assertEquals(State.CLOSED, events.get(4).state);
+    }
+}
@@ -0,0 +1,58 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ClientPoolTest {
+
+    @Test
+    public void sizeTest() {
+        AtomicInteger created = new AtomicInteger();
+        ClientPool pool = new ClientPool(3, () -> {
+            created.incrementAndGet();
+            return null;
+        });
+        assertEquals(3, pool.size());
+        assertEquals(3, created.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroSizeTest() {
+        new ClientPool(0, () -> null);
+    }
+
+    @Test
+    public void leastLoadedTest() {
+        ClientPool pool = new ClientPool(3, () -> null);
+        int first = pool.acquire("host1");
+        int second = pool.acquire("host1");
+        int third = pool.acquire("host1");
+        // every client gets one request before any gets a second one
+        assertArrayEquals(new int[] { 1, 1, 1 }, pool.load("host1"));
+        pool.release("host1", second);
+        assertEquals(second, pool.acquire("host1"));
+        assertNotEquals(first, second);
+        assertNotEquals(second, third);
+        assertNotEquals(first, third);
+    }
+
+    @Test
+    public void accountingTest() {
+        ClientPool pool = new ClientPool(2, () -> null);
+        assertArrayEquals(new int[] { 0, 0 }, pool.load("host1"));
+        int[] acquired = new int[10];
+        for (int i = 0; i < acquired.length; i++)
+            acquired[i] = pool.acquire("host1");
+        assertArrayEquals(new int[] { 5, 5 }, pool.load("host1"));
+        // hosts are accounted separately
+        pool.acquire("host2");
+        assertEquals(1, pool.load("host2")[0] + pool.load("host2")[1]);
+        for (int index : acquired)
+            pool.release("host1", index);
+        assertArrayEquals(new int[] { 0, 0 }, pool.load("host1"));
+    }
+}
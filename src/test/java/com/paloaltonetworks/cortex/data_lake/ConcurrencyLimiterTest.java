@@ -0,0 +1,99 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void queueTest() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("datalake1", 1, 1);
+        ConcurrencyLimiter.Permit first = limiter.acquire().join();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        CompletableFuture<ConcurrencyLimiter.Permit> third = limiter.acquire();
+        assertFalse(second.isDone());
+        assertEquals(2, limiter.stats().queueDepth);
+
+        third.cancel(false);
+        assertEquals(1, limiter.stats().queueDepth);
+        first.release();
+        assertTrue(second.isDone());
+        assertEquals(1, limiter.stats().inFlight);
+        assertEquals(0, limiter.stats().queueDepth);
+        second.join().release();
+        assertEquals(0, limiter.stats().inFlight);
+    }
+
+    @Test
+    public void aimdTest() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("datalake1", 4, 8);
+        for (int i = 0; i < 40; i++) {
+            ConcurrencyLimiter.Permit[] permits = new ConcurrencyLimiter.Permit[limiter.stats().limit];
+            for (int j = 0; j < permits.length; j++)
+                permits[j] = limiter.acquire().join();
+            for (ConcurrencyLimiter.Permit permit : permits) {
+                permit.responded(200, 10_000_000);
+                permit.release();
+            }
+        }
+        assertEquals(8, limiter.stats().limit);
+
+        ConcurrencyLimiter.Permit throttled = limiter.acquire().join();
+        throttled.responded(429, 10_000_000);
+        throttled.release();
+        assertEquals(4, limiter.stats().limit);
+        assertEquals(1, limiter.stats().overloadCount);
+
+        ConcurrencyLimiter.Permit slow = limiter.acquire().join();
+        slow.responded(200, 50_000_000);
+        slow.release();
+        assertEquals(2, limiter.stats().overloadCount);
+    }
+
+    @Test
+    public void heldTest() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("datalake1", 4, 8);
+        for (int i = 0; i < 20; i++) {
+            ConcurrencyLimiter.Permit permit = limiter.acquire().join();
+            permit.responded(200, 10_000_000);
+            permit.release();
+        }
+        int limit = limiter.stats().limit;
+        // long polls held by the server for seconds are not latency spikes
+        for (int i = 0; i < 2; i++) {
+            ConcurrencyLimiter.Permit held = limiter.acquire().join();
+            Thread.sleep(50);
+            held.responded(200, true);
+            held.release();
+        }
+        assertEquals(limit, limiter.stats().limit);
+        assertEquals(0, limiter.stats().overloadCount);
+
+        ConcurrencyLimiter.Permit throttled = limiter.acquire().join();
+        throttled.responded(429, true);
+        throttled.release();
+        assertEquals(1, limiter.stats().overloadCount);
+    }
+
+    @Test
+    public void unlimitedTest() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("datalake1", 1, 1);
+        // a long poll neither takes the only slot nor waits for it
+        ConcurrencyLimiter.Permit held = limiter.unlimited();
+        ConcurrencyLimiter.Permit first = limiter.acquire().join();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+        assertEquals(1, limiter.stats().inFlight);
+        // nor does its release free one
+        held.responded(200, true);
+        held.release();
+        assertFalse(second.isDone());
+        first.release();
+        assertTrue(second.isDone());
+        second.join().release();
+        assertEquals(0, limiter.stats().inFlight);
+    }
+}
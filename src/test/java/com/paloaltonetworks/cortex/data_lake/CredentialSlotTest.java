@@ -0,0 +1,65 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CredentialSlotTest {
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private int calls = 0;
+
+    @Before
+    public void setup() {
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void refreshTest() {
+        Function<Boolean, Map.Entry<String, String>> cred = force -> {
+            calls++;
+            if (force)
+                return new SimpleImmutableEntry<String, String>(Constants.USFQDN, "token0");
+            if (calls == 2)
+                return new SimpleImmutableEntry<String, String>(Constants.USFQDN, "token1");
+            if (calls == 3)
+                return null;
+            throw new IllegalStateException("hub unreachable");
+        };
+        CredentialSlot slot = new CredentialSlot("datalake1", cred, scheduler);
+        assertEquals("Bearer token0", slot.get().authHeader);
+        assertEquals(Constants.USFQDN, slot.get().entryPoint);
+        assertEquals(0, scheduler.getQueue().size());
+        slot.start();
+        assertEquals(1, scheduler.getQueue().size());
+
+        slot.refresh();
+        assertEquals("Bearer token1", slot.get().authHeader);
+        slot.refresh();
+        assertEquals("Bearer token1", slot.get().authHeader);
+        slot.refresh();
+        assertEquals("Bearer token1", slot.get().authHeader);
+
+        CredentialRefreshStats stats = slot.stats();
+        assertEquals("datalake1", stats.dataLake);
+        assertEquals(3, stats.refreshCount);
+        assertEquals(1, stats.updateCount);
+        assertEquals(1, stats.failureCount);
+        assertTrue(stats.totalLatencyNanos >= stats.maxLatencyNanos);
+        assertEquals(1, scheduler.getQueue().size());
+
+        slot.cancel();
+        assertEquals(0, scheduler.getQueue().size());
+    }
+}
@@ -0,0 +1,108 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.StringReader;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+    @Test
+    public void budgetTest() throws Exception {
+        Deadline deadline = Deadline.after(Duration.ofSeconds(10));
+        assertFalse(deadline.expired());
+        assertTrue(deadline.remainingMillis() > 9000);
+        assertEquals(Duration.ofSeconds(1), deadline.timeout(Duration.ofSeconds(1)));
+        assertTrue(deadline.timeout(Duration.ofMinutes(1)).compareTo(Duration.ofSeconds(10)) <= 0);
+        assertEquals(2000, deadline.cap(2000).intValue());
+        assertTrue(deadline.cap(60000) <= 10000);
+        assertTrue(deadline.cap(null) <= 10000);
+        Deadline expired = Deadline.after(Duration.ZERO);
+        assertTrue(expired.expired());
+        assertEquals(0, expired.remainingMillis());
+        assertEquals(Duration.ofMillis(1), expired.timeout(null));
+        try {
+            Deadline.after(Duration.ofSeconds(-1));
+            fail("Expected exception not thrown");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void expiredRequestTest() throws Exception {
+        LoopbackTransport transport = LoopbackTransport.queryService(10, i -> Json.createObjectBuilder().build());
+        QueryService qs = new QueryService(transport, null).withDeadline(Deadline.after(Duration.ZERO));
+        try {
+            qs.getJobStatus("job1", null);
+            fail("Expected exception not thrown");
+        } catch (HttpTimeoutException e) {
+        }
+        try {
+            qs.getJobStatusAsync("job1", null).join();
+            fail("Expected exception not thrown");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+        assertEquals(0, transport.transferStats().responses);
+        // deletions are not bound to the deadline
+        qs.deleteJob("job1", null);
+        assertEquals(1, transport.transferStats().responses);
+    }
+
+    @Test
+    public void cancelOnExpiryTest() throws Exception {
+        List<String> deleted = new CopyOnWriteArrayList<String>();
+        List<JsonObject> created = new CopyOnWriteArrayList<JsonObject>();
+        String jobsPath = Constants.EP_QUERY + "jobs";
+        LoopbackTransport transport = new LoopbackTransport().route("POST", jobsPath, request -> {
+            JsonObject body = Json.createReader(new StringReader(request.body)).readObject();
+            created.add(body);
+            return LoopbackTransport.Response.json(201, Json.createObjectBuilder()
+                    .add("jobId", body.getString("jobId")).add("uri", jobsPath + "/" + body.getString("jobId")).build());
+        }).route("GET", Constants.EP_QUERY + "jobResults/", request -> {
+            String jobId = request.path.substring(Constants.EP_QUERY.length() + 11);
+            return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", jobId)
+                    .add("state", "RUNNING").add("resultFormat", "valuesDictionary")
+                    .add("page", Json.createObjectBuilder().add("result", Json.createObjectBuilder())).build());
+        }).route("GET", jobsPath + "/", request -> {
+            String jobId = request.path.substring(jobsPath.length() + 1);
+            return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", jobId)
+                    .add("state", "RUNNING").add("submitTime", 0).build());
+        }).route("DELETE", jobsPath + "/", request -> {
+            deleted.add(request.path.substring(jobsPath.length() + 1));
+            return LoopbackTransport.Response.json(200, "{}");
+        });
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        // loads the request encoding classes so a cold JVM does not eat the deadline
+        new QueryService(transport, null).createJob("warm-up", new QueryParams("SELECT 1", null, null, null, null, 50),
+                null);
+        created.clear();
+        long start = System.nanoTime();
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 50, 1000, null,
+                Deadline.after(Duration.ofMillis(300)));
+        int rows = 0;
+        for (JsonValue row : iterable)
+            rows++;
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertEquals(0, rows);
+        assertTrue("took " + elapsed + " ms", elapsed < 2000);
+        assertTrue(iterable.iteratorException() instanceof QueryServiceClientException);
+        // the job was cancelled once
+        assertEquals(1, created.size());
+        assertEquals(List.of(created.get(0).getString("jobId")), deleted);
+        // the server side timeout is derived from the deadline
+        int timeoutMs = created.get(0).getJsonObject("params").getJsonObject("properties").getInt("timeoutMs");
+        assertTrue(timeoutMs > 0 && timeoutMs <= 300);
+    }
+}
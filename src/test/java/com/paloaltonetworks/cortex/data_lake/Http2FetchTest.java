@@ -0,0 +1,463 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.PushPromiseHandler;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.json.JsonStructure;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class Http2FetchTest {
+    private final ExecutorService network = Executors.newSingleThreadExecutor(r -> new Thread(r, "network"));
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(r -> new Thread(r, "fetcher"));
+    private final ExecutorService parser = Executors.newSingleThreadExecutor(r -> new Thread(r, "parser"));
+    private final List<String> decodingThreads = new CopyOnWriteArrayList<String>();
+    private final List<URI> requests = new CopyOnWriteArrayList<URI>();
+    private volatile boolean timeOut = false;
+    private volatile String body = "{\"jobId\":\"job1\"}";
+    // long polls (maxWait requests) are held until it completes
+    private volatile CompletableFuture<Void> hold = null;
+    // responses served before the default 200 one
+    private final Queue<Scripted> script = new ConcurrentLinkedQueue<Scripted>();
+
+    private static final class Scripted {
+        final int statusCode;
+        final HttpHeaders headers;
+
+        Scripted(int statusCode, String retryAfter) {
+            this.statusCode = statusCode;
+            this.headers = HttpHeaders.of((retryAfter == null) ? Map.of() : Map.of("retry-after", List.of(retryAfter)),
+                    (name, value) -> true);
+        }
+    }
+
+    @After
+    public void shutdown() {
+        network.shutdown();
+        fetcher.shutdown();
+        parser.shutdown();
+    }
+
+    /**
+     * Client that answers every request from the network executor and records
+     * the threads that decode the response bodies.
+     */
+    private class FakeClient extends HttpClient {
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler) {
+            requests.add(request.uri());
+            if (timeOut)
+                return CompletableFuture.supplyAsync(() -> {
+                    throw new CompletionException(new HttpTimeoutException("request timed out"));
+                }, network);
+            CompletableFuture<Void> held = hold;
+            if (held != null && request.uri().getQuery() != null && request.uri().getQuery().contains("maxWait="))
+                return held.thenApplyAsync(v -> respond(request, handler), network);
+            return CompletableFuture.supplyAsync(() -> respond(request, handler), network);
+        }
+
+        private <T> HttpResponse<T> respond(HttpRequest request, BodyHandler<T> handler) {
+            Scripted scripted = script.poll();
+            ResponseInfo info = new ResponseInfo() {
+                @Override
+                public int statusCode() {
+                    return (scripted == null) ? 200 : scripted.statusCode;
+                }
+
+                @Override
+                public HttpHeaders headers() {
+                    return (scripted == null) ? HttpHeaders.of(Map.of(), (name, value) -> true) : scripted.headers;
+                }
+
+                @Override
+                public Version version() {
+                    return Version.HTTP_2;
+                }
+            };
+            BodySubscriber<T> subscriber = handler.apply(info);
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onNext(List.of(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8))));
+            subscriber.onComplete();
+            return response(request, info, subscriber.getBody().toCompletableFuture().join());
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> HttpResponse<T> response(HttpRequest request, ResponseInfo info, T body) {
+            Supplier<?> supplier = (Supplier<?>) body;
+            Supplier<?> recording = () -> {
+                decodingThreads.add(Thread.currentThread().getName());
+                return supplier.get();
+            };
+            return new HttpResponse<T>() {
+                @Override
+                public int statusCode() {
+                    return info.statusCode();
+                }
+
+                @Override
+                public HttpRequest request() {
+                    return request;
+                }
+
+                @Override
+                public Optional<HttpResponse<T>> previousResponse() {
+                    return Optional.empty();
+                }
+
+                @Override
+                public HttpHeaders headers() {
+                    return info.headers();
+                }
+
+                @Override
+                public T body() {
+                    return (T) recording;
+                }
+
+                @Override
+                public Optional<SSLSession> sslSession() {
+                    return Optional.empty();
+                }
+
+                @Override
+                public URI uri() {
+                    return request.uri();
+                }
+
+                @Override
+                public Version version() {
+                    return info.version();
+                }
+            };
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler,
+                PushPromiseHandler<T> pushPromiseHandler) {
+            return sendAsync(request, handler);
+        }
+
+        @Override
+        public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler)
+                throws IOException, InterruptedException {
+            try {
+                return sendAsync(request, handler).join();
+            } catch (CompletionException e) {
+                throw (IOException) e.getCause();
+            }
+        }
+
+        @Override
+        public Optional<CookieHandler> cookieHandler() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Duration> connectTimeout() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Redirect followRedirects() {
+            return Redirect.NEVER;
+        }
+
+        @Override
+        public Optional<ProxySelector> proxy() {
+            return Optional.empty();
+        }
+
+        @Override
+        public SSLContext sslContext() {
+            return null;
+        }
+
+        @Override
+        public SSLParameters sslParameters() {
+            return null;
+        }
+
+        @Override
+        public Optional<Authenticator> authenticator() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Version version() {
+            return Version.HTTP_2;
+        }
+
+        @Override
+        public Optional<Executor> executor() {
+            return Optional.of(network);
+        }
+    }
+
+    private Http2Fetch retryingFetch(int maxAttempts, double budgetRatio) {
+        Http2Fetch fetch = fetch(Duration.ofSeconds(10));
+        fetch.setRetryPolicy(new RetryPolicy(maxAttempts, Duration.ofMillis(10), Duration.ofSeconds(10), budgetRatio));
+        return fetch;
+    }
+
+    private Http2Fetch fetch(Duration timeout) {
+        return new Http2Fetch(force -> new AbstractMap.SimpleImmutableEntry<String, String>("api.test", "token"),
+                timeout, 1, fetcher, FakeClient::new);
+    }
+
+    @Test
+    public void decodeInFetcherExecutorTest() throws Exception {
+        try (Http2Fetch fetch = fetch(null)) {
+            CortexApiResult<JsonStructure> result = fetch.getAsync(Constants.EP_QUERY + "jobs/job1", null).get();
+            assertEquals("job1", result.result.asJsonObject().getString("jobId"));
+            assertEquals(List.of("fetcher"), decodingThreads);
+        }
+    }
+
+    @Test
+    public void decodeInParseExecutorTest() throws Exception {
+        try (Http2Fetch fetch = fetch(null)) {
+            fetch.setParseExecutor(parser);
+            fetch.getAsync(Constants.EP_QUERY + "jobs/job1", null).get();
+            fetch.getAsync(Constants.EP_QUERY + "jobs/job2", null).get();
+            assertEquals(List.of("parser", "parser"), decodingThreads);
+        }
+    }
+
+    @Test
+    public void deadlineTimeoutTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobs/job1";
+        timeOut = true;
+        try (Http2Fetch fetch = fetch(Duration.ofSeconds(10))) {
+            fetch.setRetryPolicy(null);
+            fetch.setCircuitBreakerPolicy(new CircuitBreakerPolicy(1, Duration.ofMinutes(1), 1));
+            // timeouts shortened by the caller deadline are not held against the data lake
+            for (int i = 0; i < 3; i++) {
+                try {
+                    fetch.get(path, null, Deadline.after(Duration.ofMillis(500)));
+                    fail("Expected exception not thrown");
+                } catch (HttpTimeoutException e) {
+                }
+                try {
+                    fetch.getAsync(path, null, Deadline.after(Duration.ofMillis(500))).join();
+                    fail("Expected exception not thrown");
+                } catch (CompletionException e) {
+                    assertTrue(e.getCause() instanceof HttpTimeoutException);
+                }
+            }
+            assertEquals(CircuitBreakerEvent.State.CLOSED, fetch.circuitBreakerStates().get("api.test"));
+            assertEquals(0, fetch.concurrencyStats().get("api.test").overloadCount);
+            // a timeout of the configured length is a server failure
+            try {
+                fetch.get(path, null, (String[]) null);
+                fail("Expected exception not thrown");
+            } catch (HttpTimeoutException e) {
+            }
+            assertEquals(CircuitBreakerEvent.State.OPEN, fetch.circuitBreakerStates().get("api.test"));
+            assertEquals(1, fetch.concurrencyStats().get("api.test").overloadCount);
+        }
+    }
+
+    @Test
+    public void longPollTest() throws Exception {
+        body = "{\"jobId\":\"job1\",\"state\":\"DONE\",\"rowsInJob\":0,\"rowsInPage\":0,"
+                + "\"resultFormat\":\"valuesDictionary\",\"page\":{\"result\":{\"data\":[]},\"pageCursor\":null}}";
+        try (Http2Fetch fetch = fetch(Duration.ofSeconds(1))) {
+            fetch.setHedgePolicy(new HedgePolicy(0.9, Duration.ofMillis(20)));
+            QueryService qs = new QueryService(fetch, null);
+            qs.getJobResults("job1", 2000, null, null, null, null, null, null);
+            qs.getJobResultsAsync("job1", 2000, null, null, null, null, null, null).get();
+            // the wait is kept below the request timeout and long polls are not hedged
+            assertEquals(2, requests.size());
+            for (URI uri : requests)
+                assertEquals("maxWait=" + (1000 - QueryService.LONG_POLL_MARGIN), uri.getQuery());
+            assertEquals(0, fetch.hedgeStats().requests);
+            qs.getJobResults("job1", null, null, null, null, 1, null, null);
+            assertEquals(1, fetch.hedgeStats().requests);
+            // and they have their own latency series
+            Map<String, Long> operations = new TreeMap<String, Long>();
+            for (EndpointMetrics metrics : fetch.metrics())
+                operations.merge(metrics.operation, metrics.requests, Long::sum);
+            assertEquals(Map.of("awaitJobResults", 2L, "getJobResults", 1L), operations);
+        }
+    }
+
+    @Test
+    public void longPollLimiterTest() throws Exception {
+        String longPoll = Constants.EP_QUERY + "jobResults/job1?maxWait=2000";
+        hold = new CompletableFuture<Void>();
+        try (Http2Fetch fetch = fetch(Duration.ofSeconds(10))) {
+            fetch.setConcurrencyLimits(1, 1);
+            CompletableFuture<CortexApiResult<JsonStructure>> pending = fetch.getAsync(longPoll, null);
+            CompletableFuture<CortexApiResult<JsonStructure>> blocking = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch.get(longPoll, null, (String[]) null);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            // the long polls held by the server do not delay the only slot
+            CortexApiResult<JsonStructure> result = fetch.getAsync(Constants.EP_QUERY + "jobs/job1", null).get(1,
+                    TimeUnit.SECONDS);
+            assertEquals("job1", result.result.asJsonObject().getString("jobId"));
+            assertFalse(pending.isDone());
+            assertFalse(blocking.isDone());
+            hold.complete(null);
+            pending.get(1, TimeUnit.SECONDS);
+            blocking.get(1, TimeUnit.SECONDS);
+            assertEquals(0, fetch.concurrencyStats().get("api.test").inFlight);
+        }
+    }
+
+    @Test
+    public void retryTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobResults/job1?pageNumber=3";
+        try (Http2Fetch fetch = retryingFetch(4, 0.1)) {
+            // a transient 502 on a page fetch does not reach the caller
+            script.add(new Scripted(502, null));
+            assertEquals(200, fetch.get(path, null, (String[]) null).statusCode);
+            assertEquals(2, requests.size());
+            script.add(new Scripted(502, null));
+            script.add(new Scripted(504, null));
+            assertEquals(200, fetch.getAsync(path, null).get().statusCode);
+            assertEquals(5, requests.size());
+            assertEquals(3, fetch.retryStats().retries);
+            // neither does a 502 on a delete
+            script.add(new Scripted(502, null));
+            assertEquals(200, fetch.delete(Constants.EP_QUERY + "jobs/job1", null, (String[]) null).statusCode);
+            assertEquals(7, requests.size());
+        }
+    }
+
+    @Test
+    public void retryAfterTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobs/job1";
+        try (Http2Fetch fetch = retryingFetch(4, 0.1)) {
+            script.add(new Scripted(503, "1"));
+            long start = System.nanoTime();
+            assertEquals(200, fetch.get(path, null, (String[]) null).statusCode);
+            assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+            script.add(new Scripted(429, "1"));
+            start = System.nanoTime();
+            assertEquals(200, fetch.getAsync(path, null).get().statusCode);
+            assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+            assertEquals(4, requests.size());
+        }
+    }
+
+    @Test
+    public void postNotRetriedTest() throws Exception {
+        try (Http2Fetch fetch = retryingFetch(4, 0.1)) {
+            script.add(new Scripted(502, null));
+            assertEquals(502, fetch.post(Constants.EP_QUERY + "jobs", null, null, BodyPublishers.ofString("{}"))
+                    .statusCode);
+            script.add(new Scripted(503, null));
+            assertEquals(503, fetch.postAsync(Constants.EP_QUERY + "jobs", null, null, BodyPublishers.ofString("{}"))
+                    .get().statusCode);
+            assertEquals(2, requests.size());
+            assertEquals(0, fetch.retryStats().retries);
+        }
+    }
+
+    @Test
+    public void retryBudgetTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobs/job1";
+        // no retries are earned: only the reserve can be spent
+        try (Http2Fetch fetch = retryingFetch(4, 0)) {
+            for (int i = 0; i < RetryBudget.RESERVE; i++) {
+                script.add(new Scripted(502, null));
+                assertEquals(200, fetch.get(path, null, (String[]) null).statusCode);
+            }
+            script.add(new Scripted(502, null));
+            assertEquals(502, fetch.get(path, null, (String[]) null).statusCode);
+            script.add(new Scripted(502, null));
+            assertEquals(502, fetch.getAsync(path, null).get().statusCode);
+            assertEquals(2 * RetryBudget.RESERVE + 2, requests.size());
+            assertEquals(RetryBudget.RESERVE, fetch.retryStats().retries);
+            assertEquals(2, fetch.retryStats().budgetExhausted);
+        }
+    }
+
+    @Test
+    public void retryDeadlineTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobs/job1";
+        try (Http2Fetch fetch = retryingFetch(4, 0.1)) {
+            // the server asks for more time than the caller has left
+            script.add(new Scripted(503, "5"));
+            assertEquals(503, fetch.get(path, null, Deadline.after(Duration.ofSeconds(2))).statusCode);
+            script.add(new Scripted(503, "5"));
+            assertEquals(503, fetch.getAsync(path, null, Deadline.after(Duration.ofSeconds(2))).get().statusCode);
+            assertEquals(2, requests.size());
+            assertEquals(0, fetch.retryStats().retries);
+        }
+    }
+
+    @Test
+    public void circuitOpenNotRetriedTest() throws Exception {
+        String path = Constants.EP_QUERY + "jobs/job1";
+        try (Http2Fetch fetch = retryingFetch(4, 0.1)) {
+            fetch.setCircuitBreakerPolicy(new CircuitBreakerPolicy(1, Duration.ofMinutes(1), 1));
+            // the 502 opens the circuit: its retry fails fast and is the last attempt
+            script.add(new Scripted(502, null));
+            try {
+                fetch.get(path, null, (String[]) null);
+                fail("Expected exception not thrown");
+            } catch (CircuitBreakerOpenException e) {
+            }
+            try {
+                fetch.getAsync(path, null).join();
+                fail("Expected exception not thrown");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+            }
+            assertEquals(1, requests.size());
+            assertEquals(1, fetch.retryStats().retries);
+        }
+    }
+}
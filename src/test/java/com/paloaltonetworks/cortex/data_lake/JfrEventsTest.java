@@ -0,0 +1,78 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.json.Json;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class JfrEventsTest {
+
+    @Test
+    public void jobIdTest() {
+        assertEquals("job1", JfrEvents.jobId(Constants.EP_QUERY + "jobs/job1"));
+        assertEquals("job1", JfrEvents.jobId(Constants.EP_QUERY + "jobResults/job1?pageSize=10"));
+        assertNull(JfrEvents.jobId(Constants.EP_QUERY + "jobs"));
+    }
+
+    @Test
+    public void disabledTest() {
+        // nothing is allocated while no recording enables the events
+        assertNull(JfrEvents.beginHttpOperation());
+        assertNull(JfrEvents.beginPageFetch());
+        try (Recording recording = new Recording()) {
+            recording.enable(JfrEvents.PageFetch.class);
+            recording.disable(JfrEvents.HttpOperation.class);
+            recording.start();
+            assertNotNull(JfrEvents.beginPageFetch());
+            assertNull(JfrEvents.beginHttpOperation());
+        }
+    }
+
+    @Test
+    public void lifecycleTest() throws Exception {
+        LoopbackTransport transport = LoopbackTransport.queryService(250,
+                i -> Json.createObjectBuilder().add("row", i).build());
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        Path file = Files.createTempFile("cortex", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.paloaltonetworks.cortex.data_lake.*");
+            recording.start();
+            String jobId = null;
+            QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 1, null);
+            int rows = 0;
+            for (var row : iterable) {
+                jobId = iterable.jobId;
+                rows += (row != null) ? 1 : 0;
+            }
+            assertEquals(250, rows);
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<String> names = events.stream().map(e -> e.getEventType().getName()
+                    .substring("com.paloaltonetworks.cortex.data_lake.".length())).collect(Collectors.toList());
+            assertEquals(1, names.stream().filter("JobSubmit"::equals).count());
+            // the job poll long polls (and gets) the first page
+            assertEquals(1, names.stream().filter("JobPoll"::equals).count());
+            assertEquals(2, names.stream().filter("PageFetch"::equals).count());
+            assertEquals(1, names.stream().filter("JobDelete"::equals).count());
+            for (RecordedEvent event : events)
+                assertEquals(jobId, event.getString("jobId"));
+            assertTrue(events.stream().anyMatch(e -> e.hasField("rows") && e.getInt("rows") == 50));
+            assertTrue(events.stream().filter(e -> e.getEventType().getName().endsWith(".PageFetch"))
+                    .allMatch(e -> e.getLong("bytes") > 0));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
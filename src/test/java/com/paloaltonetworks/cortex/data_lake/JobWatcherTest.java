@@ -0,0 +1,163 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import javax.json.Json;
+
+import org.junit.Test;
+
+public class JobWatcherTest {
+    private final String jobsPath = Constants.EP_QUERY + "jobs/";
+
+    /**
+     * Query service whose jobs run for as many status checks as their number.
+     */
+    private LoopbackTransport jobs(Map<String, AtomicInteger> checks) {
+        return new LoopbackTransport().route("GET", jobsPath, request -> {
+            String jobId = request.path.substring(jobsPath.length());
+            int check = checks.computeIfAbsent(jobId, k -> new AtomicInteger()).incrementAndGet();
+            String state = (check > Integer.parseInt(jobId.substring(3)) % 5) ? "DONE" : "RUNNING";
+            return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", jobId)
+                    .add("state", state).add("submitTime", 0).build());
+        });
+    }
+
+    @Test
+    public void manyJobsTest() throws Exception {
+        Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+        QueryService qs = new QueryService(jobs(checks), null);
+        qs.setPollingStrategy((attempt, jobDetail) -> 10 * attempt);
+        List<CompletableFuture<QueryJobDetail>> done = new ArrayList<CompletableFuture<QueryJobDetail>>();
+        for (int i = 0; i < 500; i++)
+            done.add(qs.awaitJob("job" + i, null));
+        for (int i = 0; i < done.size(); i++) {
+            QueryJobDetail jobDetail = done.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals("job" + i, jobDetail.jobId);
+            assertEquals(QueryJobDetail.JobState.DONE, jobDetail.state);
+            assertEquals(i % 5 + 1, checks.get("job" + i).get());
+        }
+        assertEquals(0, qs.watcher().pending());
+    }
+
+    @Test
+    public void cancelTest() throws Exception {
+        Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+        QueryService qs = new QueryService(jobs(checks), null);
+        qs.setPollingStrategy((attempt, jobDetail) -> 100);
+        CompletableFuture<QueryJobDetail> done = qs.awaitJob("job4", null);
+        // the first check is issued right away
+        while (checks.get("job4") == null)
+            Thread.sleep(1);
+        done.cancel(true);
+        assertEquals(0, qs.watcher().pending());
+        Thread.sleep(300);
+        assertTrue(checks.get("job4").get() <= 2);
+    }
+
+    @Test
+    public void deadlineTest() throws Exception {
+        Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+        QueryService qs = new QueryService(jobs(checks), null);
+        qs.setPollingStrategy((attempt, jobDetail) -> 100);
+        QueryService bound = qs.withDeadline(Deadline.after(Duration.ofMillis(150)));
+        // deadline bound copies share the watcher of the original object
+        assertSame(qs.watcher(), bound.watcher());
+        assertSame(qs.watcher(), qs.withDeadline(null).watcher());
+        CompletableFuture<QueryJobDetail> expiring = bound.awaitJob("job4", null);
+        CompletableFuture<QueryJobDetail> unbound = qs.awaitJob("job9", null);
+        try {
+            expiring.get(10, TimeUnit.SECONDS);
+            fail("Expected exception not thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+        assertEquals(QueryJobDetail.JobState.DONE, unbound.get(10, TimeUnit.SECONDS).state);
+        assertEquals(5, checks.get("job9").get());
+        assertEquals(0, qs.watcher().pending());
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        AtomicInteger lists = new AtomicInteger();
+        AtomicInteger listedOld = new AtomicInteger();
+        Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+        long now = System.currentTimeMillis();
+        // job99 was submitted long before it is watched and runs for more lists
+        IntFunction<Long> submitTime = i -> (i == 99) ? now - 3_600_000 : now;
+        IntFunction<Integer> runs = i -> (i == 99) ? 10 : i % 5;
+        LoopbackTransport transport = new LoopbackTransport().route("GET", jobsPath, request -> {
+            String jobId = request.path.substring(jobsPath.length());
+            checks.computeIfAbsent(jobId, k -> new AtomicInteger()).incrementAndGet();
+            int i = Integer.parseInt(jobId.substring(3));
+            return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", jobId)
+                    .add("state", (lists.get() > runs.apply(i)) ? "DONE" : "RUNNING")
+                    .add("submitTime", submitTime.apply(i)).build());
+        }).route("GET", Constants.EP_QUERY + "jobs", request -> {
+            assertEquals("tenant1", request.params.get("tenantId"));
+            long createdAfter = Long.parseLong(request.params.get("createdAfter"));
+            int maxJobs = Integer.parseInt(request.params.get("maxJobs"));
+            int list = lists.incrementAndGet();
+            var jobs = Json.createArrayBuilder();
+            for (int i = 0, listed = 0; i < 100 && listed < maxJobs; i++) {
+                if (submitTime.apply(i) <= createdAfter)
+                    continue;
+                if (i == 99)
+                    listedOld.incrementAndGet();
+                jobs.add(Json.createObjectBuilder().add("jobId", "job" + i)
+                        .add("state", (list > runs.apply(i)) ? "DONE" : "RUNNING")
+                        .add("submitTime", submitTime.apply(i)));
+                listed++;
+            }
+            return LoopbackTransport.Response.json(200, jobs.build());
+        });
+        QueryService qs = new QueryService(transport, null);
+        qs.setPollingStrategy((attempt, jobDetail) -> 10);
+        List<CompletableFuture<QueryJobDetail>> done = new ArrayList<CompletableFuture<QueryJobDetail>>();
+        for (int i = 0; i < 100; i++)
+            done.add(qs.awaitJob("job" + i, "tenant1", null));
+        for (int i = 0; i < done.size(); i++)
+            assertEquals(QueryJobDetail.JobState.DONE, done.get(i).get(10, TimeUnit.SECONDS).state);
+        // the tenant is listed until its last job is done...
+        assertTrue("listed " + lists.get() + " times", lists.get() >= 11 && lists.get() <= 14);
+        // ... and only the detail of the completed jobs is fetched
+        for (int i = 0; i < 99; i++)
+            assertEquals(1, checks.get("job" + i).get());
+        // the old job is checked once on its own, then listed with the others
+        assertEquals(2, checks.get("job99").get());
+        assertTrue(listedOld.get() > 0);
+        assertEquals(0, qs.watcher().pending());
+    }
+
+    @Test
+    public void failedListTest() throws Exception {
+        Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+        AtomicInteger lists = new AtomicInteger();
+        LoopbackTransport transport = jobs(checks).route("GET", Constants.EP_QUERY + "jobs", request -> {
+            lists.incrementAndGet();
+            return LoopbackTransport.error(503, "busy");
+        });
+        QueryService qs = new QueryService(transport, null);
+        qs.setPollingStrategy((attempt, jobDetail) -> 10);
+        List<CompletableFuture<QueryJobDetail>> done = new ArrayList<CompletableFuture<QueryJobDetail>>();
+        for (int i = 0; i < 20; i++)
+            done.add(qs.awaitJob("job" + i, "tenant1", null));
+        // a failed list sends the jobs of the batch to their own status checks
+        for (int i = 0; i < done.size(); i++)
+            assertEquals(QueryJobDetail.JobState.DONE, done.get(i).get(10, TimeUnit.SECONDS).state);
+        assertTrue(lists.get() > 0);
+        assertEquals(0, qs.watcher().pending());
+    }
+}
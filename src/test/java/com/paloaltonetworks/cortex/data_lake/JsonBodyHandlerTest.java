@@ -0,0 +1,211 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.json.JsonStructure;
+
+import org.junit.Test;
+
+public class JsonBodyHandlerTest {
+    private final String OBJECT_RESPONSE = "{\"jobId\":\"86d0d782-5ad2-442e-ab1b-67dee405382f\",\"uri\":\"/query/v2/jobs/86d0d782\"}";
+    private final String ARRAY_RESPONSE = "[{\"jobId\":\"86d0d782-5ad2-442e-ab1b-67dee405382f\"},{\"jobId\":\"c1\"}]";
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void decodeObject() {
+        CortexApiResult<JsonStructure> result = JsonBodyHandler.decode(stream(OBJECT_RESPONSE), 200);
+        assertEquals(200, result.statusCode);
+        assertEquals("86d0d782-5ad2-442e-ab1b-67dee405382f", result.result.asJsonObject().getString("jobId"));
+    }
+
+    @Test
+    public void decodeArray() {
+        CortexApiResult<JsonStructure> result = JsonBodyHandler.decode(stream(ARRAY_RESPONSE), 200);
+        assertEquals(2, result.result.asJsonArray().size());
+    }
+
+    @Test
+    public void decodeNullLiteral() {
+        assertNull(JsonBodyHandler.decode(stream("null"), 200));
+    }
+
+    @Test
+    public void decodeInvalid() {
+        CortexApiResult<JsonStructure> result = JsonBodyHandler.decode(stream(""), 502);
+        assertEquals(502, result.statusCode);
+        assertNull(result.result);
+        assertNull(JsonBodyHandler.decode(stream("<html>"), 502).result);
+    }
+
+    @Test
+    public void decodeBrokenStream() {
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        try {
+            JsonBodyHandler.decode(broken, 200);
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause().getMessage().contains("connection reset"));
+            return;
+        }
+        throw new AssertionError("Expected exception not thrown");
+    }
+
+    private static byte[] compress(String body, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (var encoder = gzip ? new GZIPOutputStream(out) : new DeflaterOutputStream(out)) {
+            encoder.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void decodeCompressed() throws IOException {
+        JsonBodyHandler handler = new JsonBodyHandler();
+        byte[] gzip = compress(ARRAY_RESPONSE, true);
+        byte[] deflate = compress(OBJECT_RESPONSE, false);
+        assertEquals(2, handler.decode(new ByteArrayInputStream(gzip), "gzip", 200).result.asJsonArray().size());
+        assertEquals("/query/v2/jobs/86d0d782", handler
+                .decode(new ByteArrayInputStream(deflate), "deflate", 200).result.asJsonObject().getString("uri"));
+        CortexApiResult<JsonStructure> result = handler.decode(stream(OBJECT_RESPONSE), null, 200);
+        assertEquals(200, result.statusCode);
+        assertEquals(OBJECT_RESPONSE.length(), result.bytes);
+
+        TransferStats stats = handler.stats();
+        int plain = OBJECT_RESPONSE.length();
+        assertEquals(3, stats.responses);
+        assertEquals(2, stats.compressedResponses);
+        assertEquals(gzip.length + deflate.length + plain, stats.wireBytes);
+        assertEquals(ARRAY_RESPONSE.length() + 2 * plain, stats.decodedBytes);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void decodeUnsupportedEncoding() {
+        new JsonBodyHandler().decode(stream(OBJECT_RESPONSE), "br", 200);
+    }
+
+    private static ResponseInfo info(String encoding) {
+        return new ResponseInfo() {
+            @Override
+            public int statusCode() {
+                return 200;
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return HttpHeaders.of((encoding == null) ? Map.of() : Map.of("content-encoding", List.of(encoding)),
+                        (name, value) -> true);
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return HttpClient.Version.HTTP_2;
+            }
+        };
+    }
+
+    @Test
+    public void asyncBodyIsReceivedBeforeDecoding() throws Exception {
+        JsonBodyHandler handler = new JsonBodyHandler();
+        BodySubscriber<Supplier<CortexApiResult<JsonStructure>>> subscriber = handler
+                .cancellable(new CompletableFuture<Object>()).apply(info("gzip"));
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        byte[] body = compress(ARRAY_RESPONSE, true);
+        int half = body.length / 2;
+        subscriber.onNext(List.of(ByteBuffer.wrap(body, 0, half)));
+        assertFalse(subscriber.getBody().toCompletableFuture().isDone());
+        subscriber.onNext(List.of(ByteBuffer.wrap(body, half, body.length - half)));
+        subscriber.onComplete();
+        assertEquals(2, subscriber.getBody().toCompletableFuture().get().get().result.asJsonArray().size());
+        assertEquals(body.length, handler.stats().wireBytes);
+        assertEquals(ARRAY_RESPONSE.length(), handler.stats().decodedBytes);
+    }
+
+    @Test
+    public void asyncBodyIsDecodedInPlace() throws Exception {
+        BodySubscriber<Supplier<CortexApiResult<JsonStructure>>> subscriber = new JsonBodyHandler()
+                .cancellable(new CompletableFuture<Object>()).apply(info(null));
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        byte[] body = ARRAY_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int offset = 0; offset < body.length; offset += 7)
+            buffers.add(ByteBuffer.wrap(body, offset, Math.min(7, body.length - offset)));
+        subscriber.onNext(buffers.subList(0, 2));
+        subscriber.onNext(buffers.subList(2, buffers.size()));
+        subscriber.onComplete();
+        Supplier<CortexApiResult<JsonStructure>> decoder = subscriber.getBody().toCompletableFuture().get();
+        // the received buffers are untouched until they are parsed
+        for (ByteBuffer buffer : buffers)
+            assertTrue(buffer.hasRemaining());
+        assertEquals(2, decoder.get().result.asJsonArray().size());
+        for (ByteBuffer buffer : buffers)
+            assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void cancelledExchangeResetsStream() throws Exception {
+        AtomicBoolean reset = new AtomicBoolean();
+        CompletableFuture<Object> exchange = new CompletableFuture<Object>();
+        BodySubscriber<Supplier<CortexApiResult<JsonStructure>>> subscriber = new JsonBodyHandler()
+                .cancellable(exchange).apply(info(null));
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                reset.set(true);
+            }
+        });
+        assertFalse(subscriber.getBody().toCompletableFuture().isDone());
+        assertFalse(reset.get());
+        exchange.cancel(true);
+        assertTrue(reset.get());
+        assertTrue(subscriber.getBody().toCompletableFuture().isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,66 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.json.Json;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class LoopbackTransportTest {
+
+    @Test
+    public void pagingTest() throws Exception {
+        LoopbackTransport transport = LoopbackTransport
+                .queryService(1050, i -> Json.createObjectBuilder().add("row", i).build());
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        QueryIterable iterable = qsc.iterable("SELECT * FROM `firewall.traffic`", 100, 1, 1, null);
+        List<Integer> rows = new ArrayList<Integer>();
+        for (JsonValue row : iterable)
+            rows.add(row.asJsonObject().getInt("row"));
+        assertEquals(1050, rows.size());
+        for (int i = 0; i < rows.size(); i++)
+            assertEquals(i, rows.get(i).intValue());
+        // the job is deleted once iterated
+        assertNull(iterable.jobId);
+        // create, 11 pages (the first one long polled) and delete
+        assertEquals(13, transport.transferStats().responses);
+        assertEquals(1050, qsc.stream("SELECT 1", 100, 1, 1, null).parallel().collect(Collectors.toList()).size());
+    }
+
+    @Test
+    public void cannedTest() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport().route("GET", Constants.EP_QUERY + "jobs/",
+                LoopbackTransport.error(503, "busy"));
+        QueryService qs = new QueryService(transport, null);
+        try {
+            qs.getJobStatus("job1", null);
+            fail("Expected exception not thrown");
+        } catch (QueryServiceException e) {
+            assertEquals(503, e.httpStatusCode);
+            assertEquals("busy", e.queryApiError.iterator().next().message);
+        }
+        assertEquals(404, transport.delete(Constants.EP_QUERY + "jobs/job1", null).statusCode);
+        assertEquals(404, transport.getAsync(Constants.EP_QUERY + "jobResults/job1", null).join().statusCode);
+    }
+
+    @Test
+    public void optionalTuningTest() throws Exception {
+        LoopbackTransport transport = LoopbackTransport.queryService(10, i -> Json.createObjectBuilder().build());
+        QueryService qs = new QueryService(transport, null);
+        qs.setParseExecutor(Runnable::run);
+        qs.setHedgePolicy(new HedgePolicy(0.95, Duration.ofMillis(10)));
+        qs.setCircuitBreakerPolicy(CircuitBreakerPolicy.DEFAULT);
+        qs.addCircuitBreakerListener(event -> fail("no circuit breakers"));
+        assertNull(qs.hedgeStats());
+        assertTrue(qs.warmUp().join().isEmpty());
+        assertTrue(qs.metrics().isEmpty());
+        assertEquals(0, qs.transferStats().responses);
+    }
+}
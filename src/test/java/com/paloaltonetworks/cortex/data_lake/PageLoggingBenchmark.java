@@ -0,0 +1,135 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.json.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Checks that the page parsing path does not build log messages when the
+ * package logger level is disabled.
+ * 
+ * The {@code parsePage} and {@code parseJobDetail} benchmarks work on an
+ * already decoded DOM, so with the logger turned {@code OFF} the only
+ * allocations left are the model objects themselves. {@link #main} runs both
+ * levels with the GC profiler and fails if an {@code OFF} run allocates more
+ * than the size of the model objects it returns: a single log string carrying
+ * a jobId (around 90 bytes) is enough to exceed those budgets.
+ * 
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class PageLoggingBenchmark {
+    // QueryJobResult, Page and PageResult plus the boxed row counters
+    static final double PAGE_BYTES_PER_OP = 128;
+    // QueryJobDetail, Progress, Statistics, QueryParams, boxed fields and errors
+    static final double JOB_DETAIL_BYTES_PER_OP = 384;
+    private static final int ROWS = 400;
+    private static final String JOB_DETAIL = "{\"jobId\":\"86d0d782-5ad2-442e-ab1b-67dee405382f\",\"state\":\"RUNNING\",\"submitTime\":1586293185000,\"startTime\":1586293185100,\"endTime\":1586293186300,\"progress\":{\"completionPct\":55},\"params\":{\"query\":\"SELECT * FROM `2020001.firewall.traffic` LIMIT 100\",\"dialect\":\"Csql\",\"properties\":{\"priority\":\"foreground\",\"timeoutMs\":60000,\"maxWait\":2000,\"defaultPageSize\":400}},\"statistics\":{\"runTimeMs\":1200,\"cachePct\":0,\"etaMs\":800},\"errors\":[]}";
+
+    @Param({ "OFF", "FINEST" })
+    public String level;
+
+    private JsonObject page;
+    private JsonObject jobDetail;
+
+    static String page(int rows) {
+        StringBuilder sb = new StringBuilder(
+                "{\"jobId\":\"86d0d782-5ad2-442e-ab1b-67dee405382f\",\"state\":\"DONE\",\"rowsInJob\":40017,\"rowsInPage\":")
+                        .append(rows)
+                        .append(",\"resultFormat\":\"valuesDictionary\",\"page\":{\"pageCursor\":\"pagecursorstr\",\"result\":{\"data\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append("{\"time_generated\":").append(1586293185 + i)
+                    .append(",\"source_ip\":{\"value\":\"10.0.0.1\"},\"dest_port\":443,\"action\":\"allow\",\"app\":\"ssl\"}");
+        }
+        return sb.append("]}}}").toString();
+    }
+
+    private static JsonObject decode(String body) {
+        return JsonBodyHandler.decode(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), 200).result
+                .asJsonObject();
+    }
+
+    @Setup
+    public void setup() {
+        Logger logger = Logger.getLogger("com.paloaltonetworks.cortex.data_lake");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        logger.setLevel(Level.parse(level));
+        page = decode(page(ROWS));
+        jobDetail = decode(JOB_DETAIL);
+    }
+
+    @Benchmark
+    public QueryJobResult parsePage() {
+        return QueryJobResult.parse(page);
+    }
+
+    @Benchmark
+    public QueryJobDetail parseJobDetail() {
+        return QueryJobDetail.parse(jobDetail);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder().include(PageLoggingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        boolean failed = false;
+        for (RunResult run : new Runner(opt).run()) {
+            String label = run.getParams().getBenchmark() + " level=" + run.getParams().getParam("level");
+            for (Result<?> secondary : run.getSecondaryResults().values()) {
+                if (!secondary.getLabel().endsWith("gc.alloc.rate.norm"))
+                    continue;
+                double bytesPerOp = secondary.getScore();
+                System.out.println(String.format("%s: %.1f bytes/op", label, bytesPerOp));
+                double budget = label.contains(".parsePage ") ? PAGE_BYTES_PER_OP : JOB_DETAIL_BYTES_PER_OP;
+                if ("OFF".equals(run.getParams().getParam("level")) && bytesPerOp > budget) {
+                    System.out.println(label + " allocates log messages while logging is disabled");
+                    failed = true;
+                }
+            }
+        }
+        if (failed)
+            System.exit(1);
+    }
+}
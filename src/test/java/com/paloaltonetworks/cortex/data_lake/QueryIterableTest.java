@@ -0,0 +1,231 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class QueryIterableTest {
+    private final String jobsPath = Constants.EP_QUERY + "jobs";
+    private final String resultsPath = Constants.EP_QUERY + "jobResults/";
+
+    private LoopbackTransport.Response result(String jobId, String state, int rows) {
+        var data = Json.createArrayBuilder();
+        for (int i = 0; i < rows; i++)
+            data.add(Json.createObjectBuilder().add("row", i));
+        return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", jobId).add("state", state)
+                .add("rowsInJob", rows).add("rowsInPage", rows).add("resultFormat", "valuesDictionary")
+                .add("page", Json.createObjectBuilder().add("result", Json.createObjectBuilder().add("data", data))
+                        .addNull("pageCursor"))
+                .build());
+    }
+
+    private LoopbackTransport.Response status(String state, int etaMs) {
+        return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", "job1").add("state", state)
+                .add("submitTime", 0).add("statistics", Json.createObjectBuilder().add("etaMs", etaMs)).build());
+    }
+
+    /**
+     * Query service whose job runs for the given number of status checks.
+     */
+    private LoopbackTransport runningFor(int checks, int etaMs, List<String> maxWaits, AtomicInteger statusChecks) {
+        return new LoopbackTransport()
+                .route("POST", jobsPath, LoopbackTransport.Response.json(201, "{\"jobId\":\"job1\",\"uri\":\"/jobs/job1\"}"))
+                .route("GET", jobsPath + "/",
+                        request -> status((statusChecks.incrementAndGet() <= checks) ? "RUNNING" : "DONE", etaMs))
+                .route("GET", resultsPath, request -> {
+                    maxWaits.add(String.valueOf(request.params.get("maxWait")));
+                    return result("job1", (statusChecks.get() <= checks) ? "RUNNING" : "DONE", 5);
+                }).route("DELETE", jobsPath + "/", LoopbackTransport.Response.json(200, "{}"));
+    }
+
+    @Test
+    public void longPollTest() throws Exception {
+        List<String> maxWaits = new CopyOnWriteArrayList<String>();
+        AtomicInteger statusChecks = new AtomicInteger();
+        QueryServiceClient qsc = new QueryServiceClient(runningFor(-1, 0, maxWaits, statusChecks), null);
+        int rows = 0;
+        for (JsonValue row : qsc.iterable("SELECT 1", 100, 1, 10, null))
+            rows++;
+        assertEquals(5, rows);
+        // the job state comes with the long polled page
+        assertEquals(0, statusChecks.get());
+        assertEquals(List.of("2000"), maxWaits);
+    }
+
+    @Test
+    public void watcherTest() throws Exception {
+        List<String> maxWaits = new CopyOnWriteArrayList<String>();
+        AtomicInteger statusChecks = new AtomicInteger();
+        QueryServiceClient qsc = new QueryServiceClient(runningFor(2, 10, maxWaits, statusChecks), null);
+        int rows = 0;
+        for (JsonValue row : qsc.iterable("SELECT 1", 100, 1, 10, null))
+            rows++;
+        assertEquals(5, rows);
+        // one long poll, then the watcher checks the status until the job is
+        // done and the first page is fetched
+        assertEquals(3, statusChecks.get());
+        assertEquals(List.of("2000", "null"), maxWaits);
+        assertEquals(0, qsc.watcher().pending());
+    }
+
+    @Test
+    public void etaTest() throws Exception {
+        AtomicInteger statusChecks = new AtomicInteger();
+        QueryServiceClient qsc = new QueryServiceClient(
+                runningFor(1, 300, new CopyOnWriteArrayList<String>(), statusChecks), null);
+        long start = System.nanoTime();
+        int rows = 0;
+        for (JsonValue row : qsc.iterable("SELECT 1", 100, 1, 10, null))
+            rows++;
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(5, rows);
+        // checked again once the ETA elapsed instead of backing off
+        assertEquals(2, statusChecks.get());
+        assertTrue("took " + elapsed + " ms", elapsed >= 300 && elapsed < 1000);
+    }
+
+    @Test
+    public void customStrategyTest() throws Exception {
+        List<Integer> attempts = new CopyOnWriteArrayList<Integer>();
+        QueryServiceClient qsc = new QueryServiceClient(
+                runningFor(3, 60000, new CopyOnWriteArrayList<String>(), new AtomicInteger()), null);
+        qsc.setPollingStrategy((attempt, jobDetail) -> {
+            attempts.add(attempt);
+            assertEquals(Integer.valueOf(60000), jobDetail.statistics.etaMs);
+            return 1;
+        });
+        int rows = 0;
+        for (JsonValue row : qsc.iterable("SELECT 1", 100, 1, 10, null))
+            rows++;
+        assertEquals(5, rows);
+        assertEquals(List.of(1, 2, 3), attempts);
+    }
+
+    @Test
+    public void retriesTest() throws Exception {
+        AtomicInteger statusChecks = new AtomicInteger();
+        QueryServiceClient qsc = new QueryServiceClient(
+                runningFor(100, 0, new CopyOnWriteArrayList<String>(), statusChecks), null);
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 3, null);
+        assertFalse(iterable.iterator().hasNext());
+        assertEquals(3, statusChecks.get());
+        QueryServiceClientException e = (QueryServiceClientException) iterable.iteratorException();
+        assertEquals(QueryJobDetail.JobState.RUNNING, e.state);
+    }
+
+    @Test
+    public void failedJobTest() throws Exception {
+        LoopbackTransport transport = new LoopbackTransport()
+                .route("POST", jobsPath, LoopbackTransport.Response.json(201, "{\"jobId\":\"job1\",\"uri\":\"/jobs/job1\"}"))
+                .route("GET", jobsPath + "/", LoopbackTransport.Response.json(200,
+                        Json.createObjectBuilder().add("jobId", "job1").add("state", "FAILED").add("submitTime", 0)
+                                .add("errors", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                                        .add("message", "syntax error")))
+                                .build()))
+                .route("GET", resultsPath, result("job1", "FAILED", 0))
+                .route("DELETE", jobsPath + "/", LoopbackTransport.Response.json(200, "{}"));
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 10, null);
+        assertFalse(iterable.iterator().hasNext());
+        QueryServiceClientException e = (QueryServiceClientException) iterable.iteratorException();
+        assertEquals(QueryJobDetail.JobState.FAILED, e.state);
+        assertTrue(e.getMessage().contains("syntax error"));
+    }
+
+    @Test
+    public void readAheadTest() throws Exception {
+        AtomicInteger generated = new AtomicInteger(-1);
+        LoopbackTransport transport = LoopbackTransport.queryService(1050, i -> {
+            generated.accumulateAndGet(i, Math::max);
+            return Json.createObjectBuilder().add("row", i).build();
+        });
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 1, null);
+        iterable.setReadAhead(2, 0);
+        Iterator<JsonValue> iterator = iterable.iterator();
+        assertEquals(0, iterator.next().asJsonObject().getInt("row"));
+        // pages 1 and 2 are fetched while page 0 is consumed...
+        for (int i = 0; i < 200 && generated.get() < 299; i++)
+            Thread.sleep(10);
+        assertEquals(299, generated.get());
+        // ... and no more until the consumer takes one of them
+        Thread.sleep(100);
+        assertEquals(299, generated.get());
+        int rows = 1;
+        while (iterator.hasNext())
+            assertEquals(rows++, iterator.next().asJsonObject().getInt("row"));
+        assertEquals(1050, rows);
+        // create, 11 pages and delete: nothing is fetched twice
+        assertEquals(13, transport.transferStats().responses);
+    }
+
+    @Test
+    public void readAheadBytesTest() throws Exception {
+        AtomicInteger generated = new AtomicInteger(-1);
+        LoopbackTransport transport = LoopbackTransport.queryService(1050, i -> {
+            generated.accumulateAndGet(i, Math::max);
+            return Json.createObjectBuilder().add("row", 1000 + i).build();
+        });
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 1, null);
+        // room for three responses of 100 {"row":nnnn} rows (1479 bytes each)
+        iterable.setReadAhead(0, 3 * 1500);
+        Iterator<JsonValue> iterator = iterable.iterator();
+        iterator.next();
+        for (int i = 0; i < 200 && generated.get() < 399; i++)
+            Thread.sleep(10);
+        assertEquals(399, generated.get());
+        // the buffer is full until the consumer takes one of them
+        Thread.sleep(100);
+        assertEquals(399, generated.get());
+        int rows = 1;
+        while (iterator.hasNext()) {
+            iterator.next();
+            rows++;
+        }
+        assertEquals(1050, rows);
+    }
+
+    @Test
+    public void readAheadPageNumbersTest() throws Exception {
+        // results are served by page number only: no page carries a pageCursor
+        int rows = 1050;
+        AtomicInteger fetched = new AtomicInteger();
+        LoopbackTransport transport = new LoopbackTransport()
+                .route("POST", jobsPath, LoopbackTransport.Response.json(201, "{\"jobId\":\"job1\",\"uri\":\"/jobs/job1\"}"))
+                .route("GET", jobsPath + "/", status("DONE", 0))
+                .route("DELETE", jobsPath + "/", LoopbackTransport.Response.json(200, "{}"))
+                .route("GET", resultsPath, request -> {
+                    fetched.incrementAndGet();
+                    int pageSize = Integer.parseInt(request.params.get("pageSize"));
+                    int from = Integer.parseInt(request.params.getOrDefault("pageNumber", "0")) * pageSize;
+                    int to = Math.min(rows, from + pageSize);
+                    var data = Json.createArrayBuilder();
+                    for (int i = from; i < to; i++)
+                        data.add(Json.createObjectBuilder().add("row", i));
+                    return LoopbackTransport.Response.json(200, Json.createObjectBuilder().add("jobId", "job1")
+                            .add("state", "DONE").add("rowsInJob", rows).add("rowsInPage", to - from)
+                            .add("resultFormat", "valuesDictionary")
+                            .add("page", Json.createObjectBuilder()
+                                    .add("result", Json.createObjectBuilder().add("data", data)).addNull("pageCursor"))
+                            .build());
+                });
+        QueryServiceClient qsc = new QueryServiceClient(transport, null);
+        QueryIterable iterable = qsc.iterable("SELECT 1", 100, 1, 1, null);
+        iterable.setReadAhead(2, 0);
+        int[] seen = new int[rows];
+        for (JsonValue row : iterable)
+            seen[row.asJsonObject().getInt("row")]++;
+        for (int i = 0; i < rows; i++)
+            assertEquals("row " + i, 1, seen[i]);
+        assertEquals(11, fetched.get());
+    }
+}
@@ -0,0 +1,84 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class RequestHedgerTest {
+
+    @Test
+    public void hedgeTest() {
+        RequestHedger hedger = new RequestHedger(new HedgePolicy(0.9, Duration.ofMillis(20)));
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++)
+            assertEquals("page", hedger.hedge(() -> CompletableFuture.completedFuture("page"), ForkJoinPool.commonPool())
+                    .join());
+        assertEquals(Duration.ofMillis(20).toNanos(), hedger.stats().delayNanos);
+
+        List<CompletableFuture<String>> attempts = new ArrayList<CompletableFuture<String>>();
+        String page = hedger.hedge(() -> {
+            CompletableFuture<String> attempt = (attempts.size() == 0) ? new CompletableFuture<String>()
+                    : CompletableFuture.completedFuture("hedged page");
+            attempts.add(attempt);
+            return attempt;
+        }, ForkJoinPool.commonPool()).join();
+        assertEquals("hedged page", page);
+        assertTrue(attempts.get(0).handle((r, e) -> e instanceof CancellationException).join());
+
+        HedgeStats stats = hedger.stats();
+        assertEquals(HedgePolicy.MIN_SAMPLES + 1, stats.requests);
+        assertEquals(1, stats.hedges);
+        assertEquals(1, stats.hedgeWins);
+    }
+
+    @Test
+    public void primaryFailsWhileHedgingTest() {
+        RequestHedger hedger = new RequestHedger(new HedgePolicy(0.9, Duration.ofMillis(20)));
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++)
+            hedger.hedge(() -> CompletableFuture.completedFuture("page"), ForkJoinPool.commonPool()).join();
+
+        CompletableFuture<String> primary = new CompletableFuture<String>();
+        CompletableFuture<String> backup = new CompletableFuture<String>();
+        CompletableFuture<String> result = hedger.hedge(() -> {
+            if (!primary.isDone() && !backup.isDone() && hedger.stats().hedges == 0)
+                return primary;
+            // the primary fails while the backup is being launched
+            primary.completeExceptionally(new IOException("reset"));
+            return backup;
+        }, ForkJoinPool.commonPool());
+        while (!primary.isDone())
+            Thread.onSpinWait();
+        assertFalse(result.isDone());
+        backup.complete("hedged page");
+        assertEquals("hedged page", result.join());
+    }
+
+    @Test
+    public void bothFailTest() {
+        RequestHedger hedger = new RequestHedger(new HedgePolicy(0.9, Duration.ofMillis(20)));
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++)
+            hedger.hedge(() -> CompletableFuture.completedFuture("page"), ForkJoinPool.commonPool()).join();
+
+        List<CompletableFuture<String>> attempts = new CopyOnWriteArrayList<CompletableFuture<String>>();
+        CompletableFuture<String> result = hedger.hedge(() -> {
+            CompletableFuture<String> attempt = new CompletableFuture<String>();
+            attempts.add(attempt);
+            return attempt;
+        }, ForkJoinPool.commonPool());
+        while (attempts.size() < 2)
+            Thread.onSpinWait();
+        attempts.get(1).completeExceptionally(new IOException("backup failed"));
+        assertFalse(result.isDone());
+        attempts.get(0).completeExceptionally(new IOException("primary failed"));
+        assertTrue(result.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,54 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RequestMetricsTest {
+
+    @Test
+    public void bucketTest() {
+        for (long micros : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123456, 1L << 39 }) {
+            int index = LatencyHistogram.index(micros * 1000);
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(upper > micros * 1000);
+            assertTrue(upper <= micros * 1000 * 1.125 + 1000);
+            if (index > 0)
+                assertTrue(LatencyHistogram.upperBound(index - 1) <= micros * 1000);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void operationTest() {
+        assertEquals("createJob", RequestMetrics.operation("POST", Constants.EP_QUERY + "jobs"));
+        assertEquals("getJobsList", RequestMetrics.operation("GET", Constants.EP_QUERY + "jobs"));
+        assertEquals("getJobStatus", RequestMetrics.operation("GET", Constants.EP_QUERY + "jobs/job1"));
+        assertEquals("deleteJob", RequestMetrics.operation("DELETE", Constants.EP_QUERY + "jobs/job1"));
+        assertEquals("getJobResults", RequestMetrics.operation("GET", Constants.EP_QUERY + "jobResults/job1"));
+        assertEquals("awaitJobResults", RequestMetrics.operation("GET", Constants.EP_QUERY + "jobResults/job1", true));
+        assertEquals("GET /other", RequestMetrics.operation("GET", "/other"));
+    }
+
+    @Test
+    public void snapshotTest() {
+        RequestMetrics metrics = new RequestMetrics();
+        for (int i = 1; i <= 100; i++)
+            metrics.record("getJobResults", "dl1", 200, i * 1000000L, 10);
+        metrics.record("getJobResults", "dl1", 503, 5000000L, 0);
+        metrics.record("getJobResults", "dl1", -1, 5000000L, 0);
+        List<EndpointMetrics> snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.size());
+        EndpointMetrics ok = snapshot.stream().filter(m -> m.statusClass.equals("2xx")).findFirst().get();
+        assertEquals(100, ok.requests);
+        assertEquals(1000, ok.bytes);
+        assertEquals(100000000L, ok.maxNanos);
+        long p99 = ok.percentileNanos(0.99);
+        assertTrue(p99 >= 99000000L && p99 <= 99000000L * 1.125);
+        assertEquals(ok.maxNanos, ok.percentileNanos(1));
+        assertEquals(50500000L, ok.meanNanos());
+        assertTrue(snapshot.stream().anyMatch(m -> m.statusClass.equals(EndpointMetrics.ERROR) && m.requests == 1));
+    }
+}
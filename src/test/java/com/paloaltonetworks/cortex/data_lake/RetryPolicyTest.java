@@ -0,0 +1,56 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(2), 0.5);
+
+    private static HttpHeaders headers(String retryAfter) {
+        Map<String, List<String>> map = (retryAfter == null) ? Map.of() : Map.of("retry-after", List.of(retryAfter));
+        return HttpHeaders.of(map, (name, value) -> true);
+    }
+
+    @Test
+    public void backoffTest() {
+        for (int i = 0; i < 100; i++) {
+            long first = policy.backoff(1);
+            assertTrue(first >= 0 && first <= 100);
+            long capped = policy.backoff(10);
+            assertTrue(capped >= 0 && capped <= 2000);
+        }
+    }
+
+    @Test
+    public void delayTest() {
+        long now = 1586293185000L;
+        assertEquals(-1, policy.delay(1, 500, headers(null), now));
+        assertEquals(-1, policy.delay(3, 503, headers(null), now));
+        assertTrue(policy.delay(1, 502, headers(null), now) <= 100);
+        assertEquals(1000, policy.delay(1, 429, headers("1"), now));
+        assertEquals(-1, policy.delay(1, 429, headers("120"), now));
+        assertEquals(1000, policy.delay(2, 503, headers("Tue, 7 Apr 2020 20:59:46 GMT"), now));
+        assertEquals(-1, RetryPolicy.retryAfter(headers("soon"), now));
+    }
+
+    @Test
+    public void budgetTest() {
+        RetryBudget budget = new RetryBudget();
+        for (int i = 0; i < RetryBudget.RESERVE; i++)
+            assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        budget.deposit(0.5);
+        assertFalse(budget.tryWithdraw());
+        budget.deposit(0.5);
+        assertTrue(budget.tryWithdraw());
+        assertEquals(RetryBudget.RESERVE + 1, budget.retries());
+        assertEquals(2, budget.exhausted());
+    }
+}
@@ -0,0 +1,132 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void submitTest() {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> network = new CompletableFuture<String>();
+        CompletableFuture<String> first = singleFlight.submit("page1", () -> {
+            calls.incrementAndGet();
+            return network;
+        });
+        CompletableFuture<String> second = singleFlight.submit("page1", () -> {
+            calls.incrementAndGet();
+            return network;
+        });
+        second.cancel(true);
+        assertFalse(network.isCancelled());
+        network.complete("result");
+        assertEquals("result", first.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.coalesced());
+
+        CompletableFuture<String> abandoned = new CompletableFuture<String>();
+        singleFlight.submit("page2", () -> abandoned).cancel(true);
+        assertTrue(abandoned.handle((r, e) -> e instanceof CancellationException).join());
+    }
+
+    @Test
+    public void runTest() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        String shared = new String("status");
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.run("job", () -> {
+                    started.countDown();
+                    release.await();
+                    return shared;
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.await();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> {
+            try {
+                return singleFlight.run("job", () -> "second call");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (singleFlight.coalesced() == 0)
+            Thread.sleep(1);
+        release.countDown();
+        assertSame(shared, leader.join());
+        assertSame(shared, follower.join());
+    }
+
+    @Test
+    public void submitThrowsTest() {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        CompletableFuture<String> failed = singleFlight.submit("GET /jobs/1", () -> {
+            throw new IllegalStateException("no credential");
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        // the failed flight does not block the next identical call
+        CompletableFuture<String> next = singleFlight.submit("GET /jobs/1",
+                () -> CompletableFuture.completedFuture("job"));
+        assertEquals("job", next.join());
+        assertEquals(0, singleFlight.coalesced());
+    }
+
+    @Test
+    public void leaderTimeoutIsNotSharedTest() {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        CompletableFuture<String> leaderCall = new CompletableFuture<String>();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> leader = singleFlight.submit("page1", () -> {
+            calls.incrementAndGet();
+            return leaderCall;
+        });
+        CompletableFuture<String> joiner = singleFlight.submit("page1", Deadline.after(Duration.ofMinutes(1)), () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("reissued");
+        });
+        leaderCall.completeExceptionally(new HttpTimeoutException("leader deadline exceeded"));
+        assertTrue(leader.isCompletedExceptionally());
+        // the joiner sent the request again instead of failing with the leader
+        assertEquals("reissued", joiner.join());
+        assertEquals(2, calls.get());
+
+        CompletableFuture<String> failing = new CompletableFuture<String>();
+        singleFlight.submit("page2", () -> failing);
+        CompletableFuture<String> sharing = singleFlight.submit("page2", () -> {
+            throw new IllegalStateException("not called");
+        });
+        failing.completeExceptionally(new IOException("connection reset"));
+        assertTrue(sharing.handle((r, e) -> Tools.unwrap(e) instanceof IOException).join());
+    }
+
+    @Test
+    public void joinerDeadlineTest() {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        CompletableFuture<String> network = new CompletableFuture<String>();
+        CompletableFuture<String> leader = singleFlight.submit("page1", () -> network);
+        CompletableFuture<String> joiner = singleFlight.submit("page1", Deadline.after(Duration.ofMillis(50)),
+                () -> network);
+        assertTrue(joiner.handle((r, e) -> Tools.unwrap(e) instanceof HttpTimeoutException).join());
+        // the leader keeps waiting for the shared call
+        assertFalse(leader.isDone());
+        assertFalse(network.isCancelled());
+        network.complete("result");
+        assertEquals("result", leader.join());
+    }
+}
@@ -0,0 +1,47 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TlsContextsTest {
+
+    @After
+    public void clear() {
+        TlsContexts.clear();
+    }
+
+    @Test
+    public void trustTest() throws Exception {
+        SSLContext trusted = TlsContexts.forTrust(false);
+        assertSame(trusted, TlsContexts.forTrust(false));
+        assertNotSame(trusted, TlsContexts.forTrust(true));
+        assertSame(TlsContexts.forTrust(true), TlsContexts.forTrust(true));
+    }
+
+    @Test
+    public void keyStoreTest() throws Exception {
+        char[] password = "secret".toCharArray();
+        File file = File.createTempFile("client", ".p12");
+        file.deleteOnExit();
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, password);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ks.store(out, password);
+        }
+        SSLContext first = TlsContexts.forKeyStore(file.getPath(), password);
+        assertSame(first, TlsContexts.forKeyStore(file.getAbsolutePath(), "secret".toCharArray()));
+        // a rotated container is loaded again
+        file.setLastModified(file.lastModified() - 10000);
+        SSLContext rotated = TlsContexts.forKeyStore(file.getPath(), password);
+        assertNotSame(first, rotated);
+        assertSame(rotated, TlsContexts.forKeyStore(file.getPath(), password));
+    }
+}
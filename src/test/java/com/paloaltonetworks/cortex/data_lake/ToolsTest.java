@@ -0,0 +1,53 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+public class ToolsTest {
+    private static String jwt(String claims) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + ".c2lnbmF0dXJl";
+    }
+
+    @Test
+    public void jwtExpirationTest() {
+        assertEquals(1586293185000L, Tools.jwtExpiration(jwt("{\"sub\":\"1234\",\"exp\":1586293185}")));
+        assertEquals(-1, Tools.jwtExpiration(jwt("{\"sub\":\"1234\"}")));
+        assertEquals(-1, Tools.jwtExpiration("opaque-token"));
+        assertEquals(-1, Tools.jwtExpiration("not.a.jwt"));
+        assertEquals(-1, Tools.jwtExpiration(null));
+    }
+
+    @Test
+    public void tokenRefreshAtTest() {
+        long now = 1586293185000L;
+        assertEquals(now + Tools.TOKEN_RECHECK_INTERVAL, Tools.tokenRefreshAt("opaque-token", now));
+        String longLived = jwt("{\"exp\":" + (now / 1000 + 3600) + "}");
+        assertEquals(now + 3600_000 - Tools.TOKEN_REFRESH_MARGIN, Tools.tokenRefreshAt(longLived, now));
+        String expiring = jwt("{\"exp\":" + (now / 1000 + 20) + "}");
+        assertEquals(now + 10_000, Tools.tokenRefreshAt(expiring, now));
+        String expired = jwt("{\"exp\":" + (now / 1000 - 20) + "}");
+        assertEquals(now + 1_000, Tools.tokenRefreshAt(expired, now));
+    }
+
+    @Test
+    public void virtualThreadExecutorTest() throws InterruptedException, ExecutionException {
+        ExecutorService executor;
+        try {
+            executor = Tools.virtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            assertTrue(Runtime.version().feature() < 21);
+            return;
+        }
+        String thread = executor.submit(() -> Thread.currentThread().toString()).get();
+        executor.shutdown();
+        assertTrue(thread.startsWith("VirtualThread"));
+    }
+}
@@ -0,0 +1,36 @@
+package com.paloaltonetworks.cortex.data_lake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.util.AbstractMap;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WarmUpTest {
+
+    @Test
+    public void resultTest() {
+        assertTrue(new WarmUpResult("dl1", Constants.USFQDN, 2, 404, 0, null).ok());
+        assertFalse(new WarmUpResult("dl1", Constants.USFQDN, 2, 401, 0, null).ok());
+        assertFalse(new WarmUpResult("dl1", null, 0, -1, 0, new Exception()).ok());
+    }
+
+    @Test
+    public void unreachableTest() throws Exception {
+        CredentialTuple ct = new CredentialTuple("dl1",
+                force -> new AbstractMap.SimpleImmutableEntry<String, String>("127.0.0.1:1", "token"));
+        try (Http2Fetch fetch = new Http2Fetch(null, null, true, 2)) {
+            List<WarmUpResult> results = fetch.warmUp(ct).join();
+            assertEquals(1, results.size());
+            WarmUpResult result = results.get(0);
+            assertEquals("dl1", result.dataLake);
+            assertEquals("127.0.0.1:1", result.entryPoint);
+            assertEquals(0, result.connections);
+            assertNotNull(result.error);
+            assertFalse(result.ok());
+        }
+    }
+}